@@ -0,0 +1,332 @@
+package table.organizer.benchmark;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import table.organizer.model.Bills;
+import table.organizer.model.Consumable;
+import table.organizer.model.InMemoryTableStore;
+import table.organizer.model.Person;
+import table.organizer.model.TableManager;
+import table.organizer.model.TableSnapshot;
+import table.organizer.model.TableSnapshot.ConsumableState;
+import table.organizer.model.TableSnapshot.PersonState;
+
+/**
+ * Hammers one TableManager from several threads at once: writers assign
+ * and unassign random pairs, one at a time, in bulk and in transactions,
+ * and add and remove persons and consumables, so that the others keep
+ * using items that were just removed. Readers check that every snapshot
+ * they get is consistent and keep the read lock busy with lookups, name
+ * searches and bills. When time is up it checks the table against a reload
+ * from its store and against computeAllBills().
+ * Exits with status 1 if any invariant broke or any thread threw.
+ *
+ * Configured through system properties:
+ *   stress.size     persons (and consumables) at the table, default 200
+ *   stress.writers  writing threads, default 4
+ *   stress.readers  reading threads, default 4
+ *   stress.seconds  how long to run, default 5
+ *
+ *   java -cp target/benchmarks.jar table.organizer.benchmark.ConcurrencyStress
+ *
+ * See benchmarks/pom.xml for how to build it.
+ */
+public class ConcurrencyStress {
+	private static final AtomicInteger failures = new AtomicInteger();
+	private static final AtomicLong writes = new AtomicLong();
+	private static final AtomicLong snapshotsChecked = new AtomicLong();
+	private static volatile boolean running = true;
+
+	public static void main(String[] args) throws Exception {
+		int size = Integer.parseInt(System.getProperty("stress.size", "200"));
+		int writers = Integer.parseInt(System.getProperty("stress.writers", "4"));
+		int readers = Integer.parseInt(System.getProperty("stress.readers", "4"));
+		int seconds = Integer.parseInt(System.getProperty("stress.seconds", "5"));
+
+		InMemoryTableStore store = new InMemoryTableStore();
+		final TableManager table = new TableManager(store);
+		for (int i = 0; i < size; i++) {
+			table.addPerson("person" + i);
+			table.addConsumable("item" + i, 100 + i % 900, 1 + i % 3);
+		}
+
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < writers; i++)
+			threads.add(new Thread(new Writer(table, start, i, size), "StressWriter" + i));
+		for (int i = 0; i < readers; i++)
+			threads.add(new Thread(new Reader(table, start), "StressReader" + i));
+		Thread.UncaughtExceptionHandler failOnException = new Thread.UncaughtExceptionHandler() {
+
+			@Override
+			public void uncaughtException(Thread thread, Throwable e) {
+				fail(e.toString());
+			}
+		};
+		for (Thread thread : threads) {
+			thread.setUncaughtExceptionHandler(failOnException);
+			thread.start();
+		}
+
+		start.countDown();
+		Thread.sleep(seconds * 1000L);
+		running = false;
+		for (Thread thread : threads)
+			thread.join();
+
+		checkFinal(table, store);
+		System.out.println("writes=" + writes.get() + " snapshots=" + snapshotsChecked.get()
+				+ " failures=" + failures.get());
+		System.exit(failures.get() == 0 ? 0 : 1);
+	}
+
+	static void fail(String message) {
+		if (failures.getAndIncrement() == 0)
+			System.err.println("FAILED " + Thread.currentThread().getName() + ": " + message);
+	}
+
+	private static class Writer implements Runnable {
+		private final TableManager table;
+		private final CountDownLatch start;
+		private final Random random;
+		private final int seed;
+		private final int size;
+		private int added;
+		// Kept across operations, like a screen would, so some get removed
+		private final Person[] heldPersons = new Person[8];
+		private final Consumable[] heldConsumables = new Consumable[8];
+
+		Writer(TableManager table, CountDownLatch start, int seed, int size) {
+			this.table = table;
+			this.start = start;
+			this.random = new Random(seed);
+			this.seed = seed;
+			this.size = size;
+		}
+
+		public void run() {
+			await(start);
+			while (running) {
+				// Either may have been removed since it was picked
+				final Person person = anyPerson();
+				final Consumable consumable = anyConsumable();
+				int operation = random.nextInt(100);
+				if (operation < 43) {
+					table.addConsumableToPerson(consumable, person);
+				}
+				else if (operation < 86) {
+					table.removeConsumableFromPerson(consumable, person);
+				}
+				else if (operation < 89) {
+					table.addConsumableToEveryone(consumable);
+				}
+				else if (operation < 92) {
+					table.removeConsumableFromEveryone(consumable);
+				}
+				else if (operation < 94) {
+					table.removeEveryConsumableFromPerson(person);
+				}
+				else if (operation < 96) {
+					final Consumable other = anyConsumable();
+					table.runInTransaction(new Runnable() {
+
+						@Override
+						public void run() {
+							table.addConsumableToPerson(consumable, person);
+							table.removeConsumableFromPerson(other, person);
+						}
+					});
+				}
+				else if (operation < 97) {
+					if (table.getNumberOfPersons() < 2 * size)
+						addPerson();
+				}
+				else if (operation < 98) {
+					if (person != null && table.getNumberOfPersons() > size / 2)
+						table.removePerson(person.getId());
+				}
+				else if (operation < 99) {
+					if (table.getNumberOfConsumables() < 2 * size)
+						addConsumable();
+				}
+				else {
+					if (consumable != null && table.getNumberOfConsumables() > size / 2)
+						table.removeConsumable(consumable.getId());
+				}
+				writes.incrementAndGet();
+			}
+		}
+
+		/**
+		 * @return one of the persons held, after replacing another of them
+		 *         with one picked from the current snapshot
+		 */
+		private Person anyPerson() {
+			List<PersonState> persons = table.getSnapshot().getPersons();
+			if (!persons.isEmpty()) {
+				int id = persons.get(random.nextInt(persons.size())).getId();
+				heldPersons[random.nextInt(heldPersons.length)] = table.getPersonById(id);
+			}
+			return heldPersons[random.nextInt(heldPersons.length)];
+		}
+
+		private Consumable anyConsumable() {
+			List<ConsumableState> consumables = table.getSnapshot().getConsumables();
+			if (!consumables.isEmpty()) {
+				int id = consumables.get(random.nextInt(consumables.size())).getId();
+				heldConsumables[random.nextInt(heldConsumables.length)] = table.getConsumableById(id);
+			}
+			return heldConsumables[random.nextInt(heldConsumables.length)];
+		}
+
+		private void addPerson() {
+			try {
+				table.addPerson("writer" + seed + "person" + added++);
+			} catch (Exception e) {
+				fail(e.toString());
+			}
+		}
+
+		private void addConsumable() {
+			try {
+				table.addConsumable("writer" + seed + "item" + added++, 100 + random.nextInt(900), 1 + random.nextInt(3));
+			} catch (Exception e) {
+				fail(e.toString());
+			}
+		}
+	}
+
+	private static class Reader implements Runnable {
+		private final TableManager table;
+		private final CountDownLatch start;
+
+		Reader(TableManager table, CountDownLatch start) {
+			this.table = table;
+			this.start = start;
+		}
+
+		public void run() {
+			await(start);
+			long lastVersion = -1;
+			int round = 0;
+			while (running) {
+				TableSnapshot snapshot = table.getSnapshot();
+				if (snapshot.getVersion() < lastVersion)
+					fail("snapshot version went back from " + lastVersion + " to " + snapshot.getVersion());
+				lastVersion = snapshot.getVersion();
+				checkSnapshot(snapshot);
+				snapshotsChecked.incrementAndGet();
+
+				// Exercise the read lock against the writers
+				for (PersonState state : snapshot.getPersons()) {
+					Person person = table.getPersonById(state.getId());
+					if (person != null && table.getPersonalBill(person) < 0)
+						fail("negative bill for " + person.getName());
+				}
+				for (Person person : table.findPersons("person1")) {
+					if (!person.getName().startsWith("person1"))
+						fail("search for person1 found " + person.getName());
+				}
+				if (snapshot.getTotalBillWithTip() < snapshot.getTotalBill())
+					fail("tip lowered the total");
+				if (table.getTotalBillWithTip() < 0)
+					fail("negative total");
+				if (++round % 16 == 0)
+					table.computeAllBills();
+			}
+		}
+	}
+
+	/**
+	 * Checks that snapshot agrees with itself: both sides of every relation
+	 * are there, every bill is the sum of the shares and the total is the
+	 * sum of the prices.
+	 */
+	static void checkSnapshot(TableSnapshot snapshot) {
+		Map<Integer, ConsumableState> consumables = new HashMap<Integer, ConsumableState>();
+		int total = 0;
+		for (ConsumableState consumable : snapshot.getConsumables()) {
+			consumables.put(consumable.getId(), consumable);
+			total += consumable.getTotalPrice();
+
+			int sharers = consumable.getNumberOfPersons();
+			int expected = (sharers == 0) ? consumable.getTotalPrice()
+					: (consumable.getTotalPrice() + sharers - 1) / sharers;
+			if (consumable.getPricePerPerson() != expected)
+				fail(consumable.getName() + " costs " + consumable.getPricePerPerson() + " per person, not " + expected);
+		}
+		if (total != snapshot.getTotalBill())
+			fail("total bill " + snapshot.getTotalBill() + " is not the sum of the prices " + total);
+
+		Map<Integer, PersonState> persons = new HashMap<Integer, PersonState>();
+		for (PersonState person : snapshot.getPersons()) {
+			persons.put(person.getId(), person);
+			int bill = 0;
+			for (int i = 0; i < person.getNumberOfConsumables(); i++) {
+				ConsumableState consumable = consumables.get(person.getConsumableId(i));
+				if (consumable == null || !consumable.isConsumedBy(person.getId())) {
+					fail(person.getName() + " shares " + person.getConsumableId(i) + " alone");
+					return;
+				}
+				bill += consumable.getPricePerPerson();
+			}
+			if (bill != person.getPersonalBill())
+				fail(person.getName() + " owes " + person.getPersonalBill() + ", not " + bill);
+		}
+
+		for (ConsumableState consumable : snapshot.getConsumables()) {
+			for (int i = 0; i < consumable.getNumberOfPersons(); i++) {
+				PersonState person = persons.get(consumable.getPersonId(i));
+				if (person == null || !person.isConsuming(consumable.getId()))
+					fail(consumable.getName() + " is shared by " + consumable.getPersonId(i) + " alone");
+			}
+		}
+	}
+
+	/**
+	 * With every thread stopped, the table, its last snapshot, a reload
+	 * from the store and computeAllBills() must all agree.
+	 */
+	static void checkFinal(TableManager table, InMemoryTableStore store) {
+		TableSnapshot snapshot = table.getSnapshot();
+		checkSnapshot(snapshot);
+
+		table.flush();
+		TableManager reloaded = new TableManager(store);
+		Bills bills = table.computeAllBills();
+		if (reloaded.getNumberOfPersons() != table.getNumberOfPersons())
+			fail("reload has " + reloaded.getNumberOfPersons() + " persons");
+		if (reloaded.getNumberOfConsumables() != table.getNumberOfConsumables())
+			fail("reload has " + reloaded.getNumberOfConsumables() + " consumables");
+		if (snapshot.getTotalBill() != reloaded.getTotalBill())
+			fail("reload totals " + reloaded.getTotalBill() + ", not " + snapshot.getTotalBill());
+
+		for (PersonState state : snapshot.getPersons()) {
+			Person person = table.getPersonById(state.getId());
+			Person stored = reloaded.getPersonById(state.getId());
+			int bill = table.getPersonalBill(person);
+			if (snapshot.getPersonalBill(state) != bill)
+				fail("snapshot bill of " + state.getName() + " is " + snapshot.getPersonalBill(state) + ", not " + bill);
+			if (stored == null || reloaded.getPersonalBill(stored) != bill)
+				fail("stored bill of " + state.getName() + " differs from " + bill);
+			if (bills.getBill(person) != bill)
+				fail("computeAllBills gives " + state.getName() + " " + bills.getBill(person) + ", not " + bill);
+		}
+		reloaded.flush();
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
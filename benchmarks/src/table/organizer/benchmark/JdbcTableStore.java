@@ -0,0 +1,19 @@
+package table.organizer.benchmark;
+
+import java.io.File;
+
+import table.organizer.model.SQLiteTableStore;
+import android.content.Context;
+
+/**
+ * An SQLiteTableStore over a database file in directory, opened through
+ * sqlite-jdbc by the android.database classes in benchmarks/stubs. It is the
+ * app's own store, so it runs the same statements and schema migrations as
+ * on a device; only the SQLite build and the JNI/JDBC layer differ.
+ */
+public class JdbcTableStore extends SQLiteTableStore {
+
+	public JdbcTableStore(File directory) {
+		super(new Context(directory));
+	}
+}
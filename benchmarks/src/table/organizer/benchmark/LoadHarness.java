@@ -0,0 +1,219 @@
+package table.organizer.benchmark;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import table.organizer.model.TableManager;
+
+/**
+ * Measures what a cold start costs: constructing a TableManager over an
+ * already populated store, i.e. fetching persons, consumables and
+ * relations and building the indexes and totals. For each size it reports
+ * the median load time, the peak heap and the bytes allocated, as CSV.
+ *
+ * Given a baseline CSV from an earlier run, it exits with status 1 when any
+ * metric grew by more than the tolerance.
+ *
+ * Each table is written by TableGenerator to a real SQLite database file in
+ * a temporary directory, and loaded through a JdbcTableStore, so the time
+ * includes the app's own queries and cursors. Only opening the database is
+ * left out. The SQLite build and the JDBC driver differ from a device's,
+ * so compare runs with each other rather than with a phone.
+ *
+ * Configured through system properties:
+ *   load.sizes      persons (and consumables) per table, default 10,100,1000,3000
+ *   load.density    chance that a person shares a consumable, default 0.02
+ *   load.runs       loads measured per size, default 5
+ *   load.tolerance  allowed growth over the baseline, default 0.25
+ *
+ *   java -cp target/benchmarks.jar table.organizer.benchmark.LoadHarness [results.csv] [baseline.csv]
+ *
+ * See benchmarks/pom.xml for how to build it.
+ */
+public class LoadHarness {
+	static final String HEADER = "table,relations,load_us,peak_heap_kb,allocated_kb";
+	/** Time regressions smaller than this are treated as noise. */
+	static final long TIME_SLACK_US = 1000;
+
+	/** Keeps the loaded tables reachable until measured. */
+	static volatile Object sink;
+
+	public static void main(String[] args) throws IOException {
+		int[] sizes = parseSizes(System.getProperty("load.sizes", "10,100,1000,3000"));
+		double density = Double.parseDouble(System.getProperty("load.density", "0.02"));
+		int runs = Integer.parseInt(System.getProperty("load.runs", "5"));
+		double tolerance = Double.parseDouble(System.getProperty("load.tolerance", "0.25"));
+
+		PrintWriter out = (args.length > 0) ? new PrintWriter(new FileWriter(args[0])) : null;
+		Map<String, long[]> baseline = (args.length > 1) ? readResults(args[1]) : null;
+
+		System.out.println(HEADER);
+		if (out != null)
+			out.println(HEADER);
+
+		boolean regressed = false;
+		for (int size : sizes) {
+			TableGenerator generator = new TableGenerator(size, size, density, size);
+			File directory = createTempDirectory();
+			long[] metrics;
+			int relations;
+			try {
+				relations = generator.writeDatabase(directory);
+				metrics = measure(directory, runs);
+			} finally {
+				delete(directory);
+			}
+
+			String line = generator + "," + relations + "," + metrics[0] + "," + metrics[1] + "," + metrics[2];
+			System.out.println(line);
+			if (out != null)
+				out.println(line);
+
+			if (baseline != null && baseline.containsKey(generator.toString()))
+				regressed |= compare(generator.toString(), metrics, baseline.get(generator.toString()), tolerance);
+		}
+
+		if (out != null)
+			out.close();
+		if (regressed)
+			System.exit(1);
+	}
+
+	/**
+	 * Loads a TableManager over the database in directory runs times,
+	 * opening it afresh each time.
+	 *
+	 * @return median load time in microseconds, highest peak heap in KB and
+	 *         median bytes allocated by the loading thread in KB (-1 when the
+	 *         JVM cannot tell)
+	 */
+	static long[] measure(File directory, int runs) {
+		long[] times = new long[runs];
+		long[] allocations = new long[runs];
+		long peakHeap = 0;
+
+		for (int run = 0; run < runs; run++) {
+			sink = null;
+			JdbcTableStore store = new JdbcTableStore(directory);
+			System.gc();
+			resetPeakHeap();
+
+			long allocatedBefore = allocatedBytes();
+			long start = System.nanoTime();
+			TableManager table = new TableManager(store);
+			times[run] = (System.nanoTime() - start) / 1000;
+			long allocatedAfter = allocatedBytes();
+			sink = table;
+
+			allocations[run] = (allocatedBefore < 0) ? -1 : (allocatedAfter - allocatedBefore) / 1024;
+			peakHeap = Math.max(peakHeap, peakHeap() / 1024);
+			table.close();
+			store.close();
+		}
+
+		Arrays.sort(times);
+		Arrays.sort(allocations);
+		return new long[] {times[runs / 2], peakHeap, allocations[runs / 2]};
+	}
+
+	private static File createTempDirectory() throws IOException {
+		File directory = File.createTempFile("tableorganizer", "");
+		if (!directory.delete() || !directory.mkdir())
+			throw new IOException("Não foi possível criar " + directory);
+		return directory;
+	}
+
+	private static void delete(File directory) {
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	private static boolean compare(String table, long[] current, long[] previous, double tolerance) {
+		String[] names = {"load_us", "peak_heap_kb", "allocated_kb"};
+		boolean regressed = false;
+		for (int i = 0; i < names.length; i++) {
+			if (previous[i] < 0 || current[i] < 0)
+				continue;
+			long limit = (long) (previous[i] * (1 + tolerance));
+			if (i == 0)
+				limit = Math.max(limit, previous[i] + TIME_SLACK_US);
+			if (current[i] > limit) {
+				System.err.println("REGRESSION " + table + " " + names[i] + ": " + current[i]
+						+ " > " + limit + " (baseline " + previous[i] + ")");
+				regressed = true;
+			}
+		}
+		return regressed;
+	}
+
+	private static Map<String, long[]> readResults(String file) throws IOException {
+		Map<String, long[]> results = new HashMap<String, long[]>();
+		BufferedReader in = new BufferedReader(new FileReader(file));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.equals(HEADER) || line.trim().length() == 0)
+					continue;
+				String[] fields = line.split(",");
+				results.put(fields[0], new long[] {
+						Long.parseLong(fields[2]), Long.parseLong(fields[3]), Long.parseLong(fields[4])});
+			}
+		} finally {
+			in.close();
+		}
+		return results;
+	}
+
+	private static int[] parseSizes(String list) {
+		String[] parts = list.split(",");
+		int[] sizes = new int[parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			sizes[i] = Integer.parseInt(parts[i].trim());
+		}
+		return sizes;
+	}
+
+	private static void resetPeakHeap() {
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP)
+				pool.resetPeakUsage();
+		}
+	}
+
+	private static long peakHeap() {
+		long peak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP)
+				peak += pool.getPeakUsage().getUsed();
+		}
+		return peak;
+	}
+
+	/**
+	 * Bytes allocated so far by the current thread, or -1 if this JVM does
+	 * not expose it.
+	 */
+	private static long allocatedBytes() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,244 @@
+package table.organizer.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import table.organizer.model.Consumable;
+import table.organizer.model.InMemoryTableStore;
+import table.organizer.model.Person;
+import table.organizer.model.TableManager;
+
+/**
+ * Measures the table.organizer.model operations on a plain JVM, against an
+ * InMemoryTableStore, for tables of 4 up to 10,000 persons and consumables.
+ * Build the module and keep the results as JSON so they can be compared
+ * across versions:
+ *
+ *   mvn -B package
+ *   java -jar target/benchmarks.jar ModelBenchmark -rf json -rff model.json
+ *
+ * The writes the measured operations queue are held back until the
+ * iteration ends, so the writer thread does not compete with them; see
+ * HeldStore.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModelBenchmark {
+	static final int CONSUMABLES_PER_PERSON = 4;
+
+	/** Persons, and consumables, at the table. */
+	@Param({"4", "16", "100", "1000", "10000"})
+	int size;
+
+	private HeldStore store;
+	private TableManager table;
+	private Person[] persons;
+	private Consumable[] consumables;
+	private Person[] pairPersons;
+	private Consumable[] pairConsumables;
+	private int next;
+
+	/**
+	 * Lets the writer thread run only between measured iterations. While
+	 * held, the first transaction the writer starts waits, and everything
+	 * queued after it piles up in the WriteBehindQueue until released.
+	 */
+	static class HeldStore extends InMemoryTableStore {
+		private final Object gate = new Object();
+		private boolean held;
+
+		void hold() {
+			synchronized (gate) {
+				held = true;
+			}
+		}
+
+		void release() {
+			synchronized (gate) {
+				held = false;
+				gate.notifyAll();
+			}
+		}
+
+		@Override
+		public void runInTransaction(Runnable work) {
+			synchronized (gate) {
+				while (held) {
+					try {
+						gate.wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						break;
+					}
+				}
+			}
+			super.runInTransaction(work);
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		store = new HeldStore();
+		table = populate(store, size);
+		persons = table.getPersons().toArray(new Person[0]);
+		consumables = table.getConsumables().toArray(new Consumable[0]);
+
+		List<Person> pairedPersons = new ArrayList<Person>();
+		List<Consumable> pairedConsumables = new ArrayList<Consumable>();
+		findUnassignedPairs(table, pairedPersons, pairedConsumables);
+		pairPersons = pairedPersons.toArray(new Person[0]);
+		pairConsumables = pairedConsumables.toArray(new Consumable[0]);
+
+		table.flush();
+		store.hold();
+	}
+
+	/**
+	 * Writes what the iteration queued, so that the queue starts the next
+	 * one empty.
+	 */
+	@TearDown(Level.Iteration)
+	public void writeQueued() {
+		store.release();
+		table.flush();
+		store.hold();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		store.release();
+		table.close();
+	}
+
+	/**
+	 * Builds a table with size persons and size consumables, where each
+	 * person shares CONSUMABLES_PER_PERSON consumables with the others.
+	 */
+	static TableManager populate(InMemoryTableStore store, int size) {
+		TableManager table = new TableManager(store);
+		try {
+			for (int i = 0; i < size; i++) {
+				table.addPerson("person" + i);
+				table.addConsumable("item" + i, 100 + i % 900, 1 + i % 3);
+			}
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+
+		for (int i = 0; i < size; i++) {
+			Person person = table.getPerson(i);
+			for (int k = 0; k < CONSUMABLES_PER_PERSON && k < size; k++) {
+				table.addConsumableToPerson(table.getConsumable((i + k) % size), person);
+			}
+		}
+		table.flush();
+		return table;
+	}
+
+	/**
+	 * Fills persons and items with pairs that populate() left unrelated, one
+	 * per person, so that every assignUnassign call really changes the
+	 * table. When everyone already shares everything, as at the smallest
+	 * size, it adds a consumable nobody shares and pairs everyone with it.
+	 */
+	static void findUnassignedPairs(TableManager table, List<Person> persons, List<Consumable> items) {
+		int count = table.getNumberOfConsumables();
+		for (int i = 0; i < table.getNumberOfPersons(); i++) {
+			Person person = table.getPerson(i);
+			for (int k = 0; k < count; k++) {
+				Consumable consumable = table.getConsumable((i + CONSUMABLES_PER_PERSON + k) % count);
+				if (!consumable.isConsumedBy(person)) {
+					persons.add(person);
+					items.add(consumable);
+					break;
+				}
+			}
+		}
+		if (!persons.isEmpty())
+			return;
+
+		Consumable unshared;
+		try {
+			unshared = table.addConsumable("unshared", 250, 1);
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+		for (Person person : table.getPersons()) {
+			persons.add(person);
+			items.add(unshared);
+		}
+	}
+
+	@Benchmark
+	public int getTotalBill() {
+		return table.getTotalBill();
+	}
+
+	@Benchmark
+	public int getPersonalBill() {
+		return table.getPersonalBill(persons[next++ % persons.length]);
+	}
+
+	@Benchmark
+	public int getPricePerPerson() {
+		return consumables[next++ % consumables.length].getPricePerPerson();
+	}
+
+	@Benchmark
+	public int computeAllBills() {
+		return table.computeAllBills().getTotal();
+	}
+
+	/**
+	 * Adds a person and removes it again, so that the table keeps its size.
+	 */
+	@Benchmark
+	public int addRemovePerson() throws Exception {
+		Person person = table.addPerson("extra");
+		table.removePerson(person.getId());
+		return person.getId();
+	}
+
+	/**
+	 * Adds a consumable and removes it again, so that the table keeps its
+	 * size.
+	 */
+	@Benchmark
+	public int addRemoveConsumable() throws Exception {
+		Consumable consumable = table.addConsumable("extra", 250, 2);
+		table.removeConsumable(consumable.getId());
+		return consumable.getId();
+	}
+
+	/**
+	 * Shares and unshares a consumable the person did not share yet.
+	 */
+	@Benchmark
+	public int assignUnassign() {
+		int pair = next++ % pairPersons.length;
+		Person person = pairPersons[pair];
+		Consumable consumable = pairConsumables[pair];
+		table.addConsumableToPerson(consumable, person);
+		table.removeConsumableFromPerson(consumable, person);
+		return person.getId();
+	}
+}
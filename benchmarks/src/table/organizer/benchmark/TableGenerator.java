@@ -0,0 +1,83 @@
+package table.organizer.benchmark;
+
+import java.io.File;
+import java.util.Random;
+
+import table.organizer.model.TableStore;
+
+/**
+ * Fills a TableStore with a synthetic table: the given number of persons
+ * and consumables, with each person/consumable pair related with
+ * probability density. The same seed always produces the same table.
+ *
+ * It writes straight to the store in a single transaction, so it can just
+ * as well populate an SQLiteTableStore on a device for manual testing, or
+ * write a database file on a JVM through writeDatabase.
+ */
+public class TableGenerator {
+	private final int persons;
+	private final int consumables;
+	private final double density;
+	private final long seed;
+
+	public TableGenerator(int persons, int consumables, double density, long seed) {
+		this.persons = persons;
+		this.consumables = consumables;
+		this.density = density;
+		this.seed = seed;
+	}
+
+	/**
+	 * Writes the table into store, which is expected to be empty.
+	 *
+	 * @return the number of relations written
+	 */
+	public int populate(final TableStore store) {
+		final int[] relations = new int[1];
+
+		store.runInTransaction(new Runnable() {
+
+			@Override
+			public void run() {
+				Random random = new Random(seed);
+
+				for (int id = 1; id <= persons; id++) {
+					store.createPerson(id, "person" + id);
+				}
+				for (int id = 1; id <= consumables; id++) {
+					store.createConsumable(id, "item" + id, 50 + random.nextInt(5000), 1 + random.nextInt(4));
+				}
+				for (int person = 1; person <= persons; person++) {
+					for (int consumable = 1; consumable <= consumables; consumable++) {
+						if (random.nextDouble() < density) {
+							store.createRelation(person, consumable);
+							relations[0]++;
+						}
+					}
+				}
+			}
+		});
+
+		return relations[0];
+	}
+
+	/**
+	 * Writes the table into a new database file in directory, with the
+	 * schema SQLiteTableStore creates. directory must not hold one yet.
+	 *
+	 * @return the number of relations written
+	 */
+	public int writeDatabase(File directory) {
+		JdbcTableStore store = new JdbcTableStore(directory);
+		try {
+			return populate(store);
+		} finally {
+			store.close();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return persons + "x" + consumables + "@" + density;
+	}
+}
@@ -0,0 +1,23 @@
+package android.content;
+
+import java.io.File;
+
+/**
+ * Stands in for the Android class so that the model compiles on a plain
+ * JVM. It only knows where its databases live.
+ */
+public class Context {
+	private final File databaseDir;
+
+	public Context(File databaseDir) {
+		this.databaseDir = databaseDir;
+	}
+
+	public Context getApplicationContext() {
+		return this;
+	}
+
+	public File getDatabasePath(String name) {
+		return new File(databaseDir, name);
+	}
+}
@@ -0,0 +1,21 @@
+package android.database;
+
+/**
+ * The part of the Android interface that SQLiteTableStore uses.
+ */
+public interface Cursor {
+
+	boolean moveToFirst();
+
+	boolean moveToNext();
+
+	int getCount();
+
+	int getColumnIndex(String columnName);
+
+	int getInt(int columnIndex);
+
+	String getString(int columnIndex);
+
+	void close();
+}
@@ -0,0 +1,78 @@
+package android.database.sqlite;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import android.database.Cursor;
+
+/**
+ * Holds every row of a query in memory, the way an Android cursor fills its
+ * CursorWindow, so that getCount() is known up front.
+ */
+class RowsCursor implements Cursor {
+	private final String[] columns;
+	private final List<Object[]> rows = new ArrayList<Object[]>();
+	private int position = -1;
+
+	RowsCursor(ResultSet result) throws SQLException {
+		ResultSetMetaData meta = result.getMetaData();
+		columns = new String[meta.getColumnCount()];
+		for (int i = 0; i < columns.length; i++) {
+			columns[i] = meta.getColumnLabel(i + 1);
+		}
+		while (result.next()) {
+			Object[] row = new Object[columns.length];
+			for (int i = 0; i < columns.length; i++) {
+				row[i] = result.getObject(i + 1);
+			}
+			rows.add(row);
+		}
+	}
+
+	@Override
+	public boolean moveToFirst() {
+		position = 0;
+		return !rows.isEmpty();
+	}
+
+	@Override
+	public boolean moveToNext() {
+		if (position < rows.size())
+			position++;
+		return position < rows.size();
+	}
+
+	@Override
+	public int getCount() {
+		return rows.size();
+	}
+
+	@Override
+	public int getColumnIndex(String columnName) {
+		for (int i = 0; i < columns.length; i++) {
+			if (columns[i].equalsIgnoreCase(columnName))
+				return i;
+		}
+		return -1;
+	}
+
+	@Override
+	public int getInt(int columnIndex) {
+		Object value = rows.get(position)[columnIndex];
+		return (value == null) ? 0 : ((Number) value).intValue();
+	}
+
+	@Override
+	public String getString(int columnIndex) {
+		Object value = rows.get(position)[columnIndex];
+		return (value == null) ? null : value.toString();
+	}
+
+	@Override
+	public void close() {
+		rows.clear();
+	}
+}
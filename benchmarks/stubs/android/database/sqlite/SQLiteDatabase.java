@@ -0,0 +1,172 @@
+package android.database.sqlite;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import android.database.Cursor;
+import android.database.SQLException;
+
+/**
+ * The part of the Android class that SQLiteTableStore uses, run over a
+ * sqlite-jdbc connection. Transactions nest as on Android: the outermost
+ * one commits only if it and every transaction inside it were marked
+ * successful.
+ */
+public class SQLiteDatabase {
+	private final Connection connection;
+	private int transactionDepth;
+	private boolean transactionSuccessful;
+	private boolean transactionFailed;
+
+	public interface CursorFactory {
+	}
+
+	SQLiteDatabase(Connection connection) {
+		this.connection = connection;
+	}
+
+	public SQLiteStatement compileStatement(String sql) {
+		try {
+			return new SQLiteStatement(connection, connection.prepareStatement(sql));
+		} catch (java.sql.SQLException e) {
+			throw wrap(sql, e);
+		}
+	}
+
+	public void beginTransaction() {
+		if (transactionDepth == 0) {
+			try {
+				connection.setAutoCommit(false);
+			} catch (java.sql.SQLException e) {
+				throw wrap("begin", e);
+			}
+			transactionFailed = false;
+		}
+		transactionDepth++;
+		transactionSuccessful = false;
+	}
+
+	public void setTransactionSuccessful() {
+		transactionSuccessful = true;
+	}
+
+	public void endTransaction() {
+		if (!transactionSuccessful)
+			transactionFailed = true;
+		transactionSuccessful = false;
+		if (--transactionDepth > 0)
+			return;
+
+		try {
+			if (transactionFailed)
+				connection.rollback();
+			else
+				connection.commit();
+			connection.setAutoCommit(true);
+		} catch (java.sql.SQLException e) {
+			throw wrap(transactionFailed ? "rollback" : "commit", e);
+		}
+	}
+
+	public void execSQL(String sql) {
+		try {
+			Statement statement = connection.createStatement();
+			try {
+				statement.execute(sql);
+			} finally {
+				statement.close();
+			}
+		} catch (java.sql.SQLException e) {
+			throw wrap(sql, e);
+		}
+	}
+
+	public Cursor query(String table, String[] columns, String selection, String[] selectionArgs,
+			String groupBy, String having, String orderBy) {
+		StringBuilder sql = new StringBuilder("select ");
+		for (int i = 0; i < columns.length; i++) {
+			sql.append((i == 0) ? "" : ", ").append(columns[i]);
+		}
+		sql.append(" from ").append(table);
+		if (selection != null)
+			sql.append(" where ").append(selection);
+		if (groupBy != null)
+			sql.append(" group by ").append(groupBy);
+		if (having != null)
+			sql.append(" having ").append(having);
+		if (orderBy != null)
+			sql.append(" order by ").append(orderBy);
+
+		try {
+			PreparedStatement statement = connection.prepareStatement(sql.toString());
+			try {
+				bind(statement, selectionArgs);
+				ResultSet result = statement.executeQuery();
+				try {
+					return new RowsCursor(result);
+				} finally {
+					result.close();
+				}
+			} finally {
+				statement.close();
+			}
+		} catch (java.sql.SQLException e) {
+			throw wrap(sql.toString(), e);
+		}
+	}
+
+	public int delete(String table, String whereClause, String[] whereArgs) {
+		String sql = "delete from " + table + ((whereClause == null) ? "" : " where " + whereClause);
+		try {
+			PreparedStatement statement = connection.prepareStatement(sql);
+			try {
+				bind(statement, whereArgs);
+				return statement.executeUpdate();
+			} finally {
+				statement.close();
+			}
+		} catch (java.sql.SQLException e) {
+			throw wrap(sql, e);
+		}
+	}
+
+	int getVersion() {
+		try {
+			Statement statement = connection.createStatement();
+			try {
+				ResultSet result = statement.executeQuery("pragma user_version");
+				return result.next() ? result.getInt(1) : 0;
+			} finally {
+				statement.close();
+			}
+		} catch (java.sql.SQLException e) {
+			throw wrap("pragma user_version", e);
+		}
+	}
+
+	void setVersion(int version) {
+		execSQL("pragma user_version = " + version);
+	}
+
+	void close() {
+		try {
+			connection.close();
+		} catch (java.sql.SQLException e) {
+			throw wrap("close", e);
+		}
+	}
+
+	private static void bind(PreparedStatement statement, String[] args) throws java.sql.SQLException {
+		if (args == null)
+			return;
+		for (int i = 0; i < args.length; i++) {
+			statement.setString(i + 1, args[i]);
+		}
+	}
+
+	static SQLException wrap(String sql, java.sql.SQLException e) {
+		return new SQLException(e.getMessage() + ", ao executar: " + sql, e);
+	}
+}
@@ -0,0 +1,74 @@
+package android.database.sqlite;
+
+import java.sql.DriverManager;
+
+import android.content.Context;
+
+/**
+ * The part of the Android class that SQLiteTableStore uses, opening the
+ * database file through sqlite-jdbc. As on Android, the schema version is
+ * kept in user_version and onCreate or onUpgrade run in a transaction when
+ * it differs from the version asked for.
+ */
+public abstract class SQLiteOpenHelper {
+	private final Context context;
+	private final String name;
+	private final int version;
+	private SQLiteDatabase database;
+
+	public SQLiteOpenHelper(Context context, String name, SQLiteDatabase.CursorFactory factory, int version) {
+		this.context = context;
+		this.name = name;
+		this.version = version;
+	}
+
+	public synchronized SQLiteDatabase getWritableDatabase() {
+		if (database != null)
+			return database;
+
+		SQLiteDatabase db;
+		try {
+			db = new SQLiteDatabase(DriverManager.getConnection(
+					"jdbc:sqlite:" + context.getDatabasePath(name).getPath()));
+		} catch (java.sql.SQLException e) {
+			throw SQLiteDatabase.wrap("open " + name, e);
+		}
+
+		try {
+			int current = db.getVersion();
+			if (current > version)
+				throw new android.database.SQLException("Não é possível voltar o banco da versão "
+						+ current + " para a " + version);
+			if (current < version) {
+				db.beginTransaction();
+				try {
+					if (current == 0)
+						onCreate(db);
+					else
+						onUpgrade(db, current, version);
+					db.setVersion(version);
+					db.setTransactionSuccessful();
+				} finally {
+					db.endTransaction();
+				}
+			}
+		} catch (RuntimeException e) {
+			db.close();
+			throw e;
+		}
+
+		database = db;
+		return db;
+	}
+
+	public synchronized void close() {
+		if (database != null) {
+			database.close();
+			database = null;
+		}
+	}
+
+	public abstract void onCreate(SQLiteDatabase db);
+
+	public abstract void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion);
+}
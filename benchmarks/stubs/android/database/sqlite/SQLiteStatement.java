@@ -0,0 +1,72 @@
+package android.database.sqlite;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+/**
+ * The part of the Android class that SQLiteTableStore uses, over a
+ * sqlite-jdbc prepared statement. Bindings stay in place between runs, as
+ * on Android.
+ */
+public class SQLiteStatement {
+	private final Connection connection;
+	private final PreparedStatement statement;
+
+	SQLiteStatement(Connection connection, PreparedStatement statement) {
+		this.connection = connection;
+		this.statement = statement;
+	}
+
+	public void bindLong(int index, long value) {
+		try {
+			statement.setLong(index, value);
+		} catch (java.sql.SQLException e) {
+			throw SQLiteDatabase.wrap("bind", e);
+		}
+	}
+
+	public void bindString(int index, String value) {
+		try {
+			statement.setString(index, value);
+		} catch (java.sql.SQLException e) {
+			throw SQLiteDatabase.wrap("bind", e);
+		}
+	}
+
+	public void execute() {
+		try {
+			statement.execute();
+		} catch (java.sql.SQLException e) {
+			throw SQLiteDatabase.wrap("execute", e);
+		}
+	}
+
+	/**
+	 * @return the id of the row inserted, or -1 if none was
+	 */
+	public long executeInsert() {
+		try {
+			if (statement.executeUpdate() == 0)
+				return -1;
+			Statement query = connection.createStatement();
+			try {
+				ResultSet result = query.executeQuery("select last_insert_rowid()");
+				return result.next() ? result.getLong(1) : -1;
+			} finally {
+				query.close();
+			}
+		} catch (java.sql.SQLException e) {
+			throw SQLiteDatabase.wrap("insert", e);
+		}
+	}
+
+	public void close() {
+		try {
+			statement.close();
+		} catch (java.sql.SQLException e) {
+			throw SQLiteDatabase.wrap("close", e);
+		}
+	}
+}
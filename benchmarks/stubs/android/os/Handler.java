@@ -0,0 +1,15 @@
+package android.os;
+
+/**
+ * Stands in for the Android class so that the model compiles on a plain
+ * JVM. See Looper.
+ */
+public class Handler {
+
+	public Handler(Looper looper) {
+	}
+
+	public boolean post(Runnable r) {
+		throw new UnsupportedOperationException();
+	}
+}
@@ -0,0 +1,12 @@
+package android.os;
+
+/**
+ * Stands in for the Android class so that the model compiles on a plain
+ * JVM, which has no main thread to post to.
+ */
+public class Looper {
+
+	public static Looper getMainLooper() {
+		throw new UnsupportedOperationException("Não há thread principal fora do Android");
+	}
+}
@@ -0,0 +1,38 @@
+package android.util;
+
+/**
+ * Writes the model's warnings and errors to System.err, dropping the debug
+ * messages, so that failures show up in the benchmark output.
+ */
+public final class Log {
+
+	private Log() {
+	}
+
+	public static int d(String tag, String msg) {
+		return 0;
+	}
+
+	public static int w(String tag, String msg) {
+		return println("W", tag, msg, null);
+	}
+
+	public static int w(String tag, String msg, Throwable tr) {
+		return println("W", tag, msg, tr);
+	}
+
+	public static int e(String tag, String msg) {
+		return println("E", tag, msg, null);
+	}
+
+	public static int e(String tag, String msg, Throwable tr) {
+		return println("E", tag, msg, tr);
+	}
+
+	private static int println(String level, String tag, String msg, Throwable tr) {
+		System.err.println(level + "/" + tag + ": " + msg);
+		if (tr != null)
+			tr.printStackTrace();
+		return 0;
+	}
+}
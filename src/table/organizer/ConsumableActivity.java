@@ -1,7 +1,12 @@
 package table.organizer;
 
+import java.util.List;
+
 import table.organizer.model.Consumable;
+import table.organizer.model.Person;
 import table.organizer.model.TableManager;
+import table.organizer.model.TableManager.OnTableLoadedListener;
+import table.organizer.model.TableManager.SimpleOnTableChangedListener;
 import android.app.AlertDialog;
 import android.app.Dialog;
 import android.app.ListActivity;
@@ -20,6 +25,8 @@ import android.view.ViewGroup;
 import android.widget.BaseAdapter;
 import android.widget.Button;
 import android.widget.EditText;
+import android.widget.Filter;
+import android.widget.Filterable;
 import android.widget.ListView;
 import android.widget.TextView;
 import android.widget.Toast;
@@ -29,23 +36,118 @@ public class ConsumableActivity extends ListActivity {
 	protected static final int DIALOG_CREATE_ITEM = 0;
 	final String tag = "TAG";
 	ConsumableAdapter consumableAdapter;
-	final private TableManager table = TableManager.getInstance(this);
+	private TableManager table;
 
 	/** Called when the activity is first created. */
 	@Override
 	public void onCreate(Bundle savedInstanceState) {
 		
 		super.onCreate(savedInstanceState);
+		setContentView(R.layout.loading_list);
 		
-		consumableAdapter = new ConsumableAdapter(this);
-		
-		ListView lv = getListView();
-		lv.addHeaderView(makeListHeader(consumableAdapter));
+		TableManager.getInstanceAsync(this, loadListener);
+	}
+	
+	/**
+	 * Fills the list once the table is loaded. Unregistered in onDestroy so
+	 * that a load finishing after the screen is gone does not touch it.
+	 */
+	private final OnTableLoadedListener loadListener = new OnTableLoadedListener() {
 		
-		setListAdapter(consumableAdapter);
-
-		lv.setTextFilterEnabled(true);
+		@Override
+		public void onTableLoaded(TableManager loaded) {
+			table = loaded;
+			
+			consumableAdapter = new ConsumableAdapter(ConsumableActivity.this);
+			
+			ListView lv = getListView();
+			lv.addHeaderView(makeListHeader(consumableAdapter));
+			
+			setListAdapter(consumableAdapter);
 
+			lv.setTextFilterEnabled(true);
+			
+			table.addOnTableChangedListener(tableListener);
+			findViewById(R.id.loading).setVisibility(View.GONE);
+		}
+		
+		@Override
+		public void onTableLoadFailed(RuntimeException e) {
+			findViewById(R.id.loading).setVisibility(View.GONE);
+			Toast.makeText(getApplicationContext(), R.string.tableLoadError, Toast.LENGTH_LONG).show();
+		}
+	};
+	
+	@Override
+	protected void onDestroy() {
+		super.onDestroy();
+		
+		TableManager.removeOnTableLoadedListener(loadListener);
+		if (table != null)
+			table.removeOnTableChangedListener(tableListener);
+	}
+	
+	/**
+	 * Keeps the list up to date, rebinding only the rows whose number of
+	 * sharers changed.
+	 */
+	private final SimpleOnTableChangedListener tableListener = new SimpleOnTableChangedListener() {
+		
+		@Override
+		public void onConsumableAdded(Consumable consumable, int position) {
+			consumableAdapter.notifyDataSetChanged();
+		}
+		
+		@Override
+		public void onConsumableRemoved(int id, int position, List<Person> sharers) {
+			consumableAdapter.notifyDataSetChanged();
+		}
+		
+		@Override
+		public void onPersonRemoved(int id, int position) {
+			refreshRows(null);
+		}
+		
+		@Override
+		public void onAssignmentChanged(Person person, final Consumable consumable, boolean assigned) {
+			refreshRows(new VisibleRows.Matcher() {
+				
+				@Override
+				public boolean matches(int position) {
+					return consumableAdapter.getConsumable(position) == consumable;
+				}
+			});
+		}
+		
+		@Override
+		public void onConsumableSharesChanged(final Consumable consumable) {
+			refreshRows(new VisibleRows.Matcher() {
+				
+				@Override
+				public boolean matches(int position) {
+					return consumableAdapter.getConsumable(position) == consumable;
+				}
+			});
+		}
+		
+		@Override
+		public void onPersonConsumablesChanged(Person person) {
+			refreshRows(null);
+		}
+		
+		@Override
+		public void onTableCleared() {
+			consumableAdapter.notifyDataSetChanged();
+		}
+		
+		@Override
+		public void onTableRolledBack() {
+			consumableAdapter.notifyDataSetChanged();
+		}
+	};
+	
+	private void refreshRows(VisibleRows.Matcher matcher) {
+		VisibleRows.refresh(getListView(), consumableAdapter, matcher);
 	}
 	
     @Override
@@ -59,19 +161,12 @@ public class ConsumableActivity extends ListActivity {
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         // Handle item selection
-        if (!OptionsMenu.optionsMenuItemPicker(item, this, consumableAdapter)){
+        if (consumableAdapter == null || !OptionsMenu.optionsMenuItemPicker(item, this)){
         	return super.onOptionsItemSelected(item);
         }
         return true;
     }
 	
-	@Override
-	public void onResume() {
-		super.onResume();
-		
-		consumableAdapter.notifyDataSetChanged();
-	}
-	
 	@Override
 	protected Dialog onCreateDialog(int id) {
 		Dialog dialog = createEmptyDialog();
@@ -80,7 +175,7 @@ public class ConsumableActivity extends ListActivity {
 	    		dialog = createNewItemDialog();
 	    		break;
 	    	case Table.TIP_DIALOG:
-	    		dialog = OptionsMenu.createNewTipDialog(this, consumableAdapter);
+	    		dialog = OptionsMenu.createNewTipDialog(this);
 	    		break;
 	    	default:
 	    }
@@ -164,14 +259,43 @@ public class ConsumableActivity extends ListActivity {
 			@Override
 			public void onClick(View v) {
 				showDialog(DIALOG_CREATE_ITEM);
-				consumableAdapter.notifyDataSetChanged();
 			}
 		});
 		return v;
 	}
 
-	private class ConsumableAdapter extends BaseAdapter {
+	private class ConsumableAdapter extends BaseAdapter implements Filterable {
 		private LayoutInflater mInflater;
+		private CharSequence prefix;
+		private List<Consumable> matches;
+		
+		/**
+		 * @return the consumable shown at position, which is not the table position
+		 *         while filtering
+		 */
+		public Consumable getConsumable(int position) {
+			return (matches == null) ? table.getConsumable(position) : matches.get(position);
+		}
+		
+		@Override
+		public void notifyDataSetChanged() {
+			// The matches were copied before the change, so look them up again
+			matches = (prefix == null) ? null : table.findConsumables(prefix);
+			super.notifyDataSetChanged();
+		}
+		
+		public Filter getFilter() {
+			return filter;
+		}
+		
+		private final PrefixFilter filter = new PrefixFilter() {
+			
+			@Override
+			void apply(CharSequence prefix) {
+				ConsumableAdapter.this.prefix = prefix;
+				notifyDataSetChanged();
+			}
+		};
 		
 		public void add (String name, int price, int quantity) throws Exception{
 			
@@ -181,17 +305,10 @@ public class ConsumableActivity extends ListActivity {
 			} catch (Exception e) {
 				throw e;
 			}
-			notifyDataSetChanged();
 		}
 		
 		public void remove (int id){
 			table.removeConsumable(id);
-			notifyDataSetChanged();
-		}
-		
-		@Override
-		public void notifyDataSetChanged() {
-			super.notifyDataSetChanged();
 		}
 		
 		public ConsumableAdapter(Context context) {
@@ -205,7 +322,7 @@ public class ConsumableActivity extends ListActivity {
 		 * @see android.widget.ListAdapter#getCount()
 		 */
 		public int getCount() {
-			return table.getNumberOfConsumables();
+			return (matches == null) ? table.getNumberOfConsumables() : matches.size();
 		}
 
 		/**
@@ -221,78 +338,104 @@ public class ConsumableActivity extends ListActivity {
 		}
 
 		/**
-		 * Use the array index as a unique id.
+		 * Use the consumable id, which does not change as rows come and go.
 		 * 
 		 * @see android.widget.ListAdapter#getItemId(int)
 		 */
 		public long getItemId(int position) {
-			return position;
+			return getConsumable(position).getId();
+		}
+		
+		@Override
+		public boolean hasStableIds() {
+			return true;
 		}
 
 		/* Minha propria view, tirada do xml list_item*/
-		public View getView(final int position, View convertView, ViewGroup parent) {
+		public View getView(int position, View convertView, ViewGroup parent) {
 			View v;
+			RowHolder holder;
 			if (convertView == null) {
 				v = mInflater.inflate(R.layout.consumable_item, parent, false);
+				holder = new RowHolder(v);
+				v.setTag(holder);
+				v.setOnClickListener(openConsumable);
+				holder.remove.setTag(holder);
+				holder.remove.setOnClickListener(confirmRemove);
 			}
 			else {
 				v = convertView;
+				holder = (RowHolder) v.getTag();
 			}
 			
-			TextView consumableView= (TextView) v.findViewById(R.id.consumable);
-			TextView quantityView = (TextView) v.findViewById(R.id.quantity);
-			TextView numPersonsView = (TextView) v.findViewById(R.id.numpersons);
-			TextView priceView = (TextView) v.findViewById(R.id.price);
-			Button removeButton = (Button) v.findViewById(R.id.remove);
+			Consumable consumable = getConsumable(position);
+			holder.consumableId = consumable.getId();
 			
-			final Consumable consumable = table.getConsumable(position);
+			holder.name.setText(consumable.getName());
+			holder.quantity.setNumber(consumable.getQuantity());
+			holder.numPersons.setNumber(consumable.getNumberOfPersons());
+			holder.price.setPrice(table.getMoneyFormatter(), consumable.getPrice());
 			
-			consumableView.setText(consumable.getName());
-			quantityView.setText(""+consumable.getQuantity());
-			numPersonsView.setText(""+consumable.getPersons().size());
-			priceView.setText(table.printPrice(consumable.getPrice()));
+			return v;
+		}
+		
+		/** Views of a row, looked up once, and what the row is showing. */
+		private class RowHolder {
+			final TextView name;
+			final TextBuffer quantity;
+			final TextBuffer numPersons;
+			final TextBuffer price;
+			final Button remove;
+			int consumableId;
 			
-			v.setOnClickListener(new OnClickListener() {
-
-				@Override
-				public void onClick(View v) {
-					Intent intent = new Intent(ConsumableActivity.this, PersonsConsumingActivity.class);
-					Bundle extras = new Bundle();
-					extras.putInt(table.POSITION, position);
-					intent.putExtras(extras);
-					startActivity(intent);
-					notifyDataSetChanged();
-				}
-			});
+			RowHolder(View row) {
+				name = (TextView) row.findViewById(R.id.consumable);
+				quantity = new TextBuffer((TextView) row.findViewById(R.id.quantity));
+				numPersons = new TextBuffer((TextView) row.findViewById(R.id.numpersons));
+				price = new TextBuffer((TextView) row.findViewById(R.id.price));
+				remove = (Button) row.findViewById(R.id.remove);
+			}
+		}
+		
+		private final OnClickListener openConsumable = new OnClickListener() {
 
-			removeButton.setOnClickListener(new OnClickListener() {
-				
-				@Override
-				public void onClick(View v) {
-					AlertDialog.Builder builder = new AlertDialog.Builder(ConsumableActivity.this);
-					builder.setMessage(R.string.confirmRemoveItem)
-					.setCancelable(false)
-					.setPositiveButton(R.string.ok, new DialogInterface.OnClickListener() {
-						
-						@Override
-						public void onClick(DialogInterface dialog, int which) {
-							remove(consumable.getId());
-				        }
-					})
-					.setNegativeButton(R.string.cancel, new DialogInterface.OnClickListener() {
-						
-						@Override
-						public void onClick(DialogInterface dialog, int which) {
-							dialog.cancel();
-						}
-					});
-					AlertDialog alert = builder.create();
-					alert.show();
-				}
-			});
+			@Override
+			public void onClick(View v) {
+				RowHolder holder = (RowHolder) v.getTag();
+				Intent intent = new Intent(ConsumableActivity.this, PersonsConsumingActivity.class);
+				Bundle extras = new Bundle();
+				extras.putInt(TableManager.CONSUMABLE_ID, holder.consumableId);
+				intent.putExtras(extras);
+				startActivity(intent);
+			}
+		};
+		
+		private final OnClickListener confirmRemove = new OnClickListener() {
 			
-			return v;
-		}
+			@Override
+			public void onClick(View v) {
+				final int consumableId = ((RowHolder) v.getTag()).consumableId;
+				AlertDialog.Builder builder = new AlertDialog.Builder(ConsumableActivity.this);
+				builder.setMessage(R.string.confirmRemoveItem)
+				.setCancelable(false)
+				.setPositiveButton(R.string.ok, new DialogInterface.OnClickListener() {
+					
+					@Override
+					public void onClick(DialogInterface dialog, int which) {
+						remove(consumableId);
+			        }
+				})
+				.setNegativeButton(R.string.cancel, new DialogInterface.OnClickListener() {
+					
+					@Override
+					public void onClick(DialogInterface dialog, int which) {
+						dialog.cancel();
+					}
+				});
+				AlertDialog alert = builder.create();
+				alert.show();
+			}
+		};
 
 	}
 
@@ -1,7 +1,8 @@
 package table.organizer;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.List;
 
 import table.organizer.model.Consumable;
 import table.organizer.model.Person;
@@ -11,18 +12,24 @@ import android.content.Context;
 import android.os.Bundle;
 import android.util.Log;
 import android.view.LayoutInflater;
+import android.view.Menu;
+import android.view.MenuInflater;
+import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.BaseAdapter;
 import android.widget.CheckBox;
 import android.widget.CompoundButton;
 import android.widget.CompoundButton.OnCheckedChangeListener;
+import android.widget.Filter;
+import android.widget.Filterable;
 import android.widget.ListView;
 import android.widget.TextView;
 
 public class ConsumedItemsActivity extends Activity {
 
 	final TableManager table = TableManager.getInstance(this);
+	private ConsumableCheckListAdapter checkListAdapter;
 
 	/** Called when the activity is first created. */
 	@Override
@@ -32,18 +39,22 @@ public class ConsumedItemsActivity extends Activity {
 		setContentView(R.layout.consumed_items_layout);
 
 		Bundle extras = getIntent().getExtras();
-		int position = extras.getInt(table.POSITION);
-		final Person person = table.getPerson(position);
+		final Person person = table.getPersonById(extras.getInt(TableManager.PERSON_ID));
+		if (person == null) {
+			// Removed while we were in the background
+			finish();
+			return;
+		}
 
 		TextView name = (TextView) findViewById(R.id.name);
 		TextView price = (TextView) findViewById(R.id.price);
 		CheckBox checkBox = (CheckBox) findViewById(R.id.mine);
 
 		name.setText(person.getName());
-		price.setText(table.printPrice(table.getPersonalBill(person)));
+		price.setText(table.getMoneyFormatter().format(table.getPersonalBill(person)));
 
 		ListView lv = (ListView) findViewById(R.id.items_list);
-		final ConsumableCheckListAdapter checkListAdapter = new ConsumableCheckListAdapter(this, person, price);
+		checkListAdapter = new ConsumableCheckListAdapter(this, person, price);
 
 		lv.setAdapter(checkListAdapter);
 
@@ -53,77 +64,145 @@ public class ConsumedItemsActivity extends Activity {
 
 			@Override
 			public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
-				if (isChecked) {
-					for (Consumable consumable : table.getConsumables()) {
-						if (!checkListAdapter.isChecked(consumable))
-							checkListAdapter.remove(consumable);
-					}
-				}
-				else {
-					checkListAdapter.clear();
-					populateCheckList(person, checkListAdapter);
-				}
+				checkListAdapter.setMineOnly(isChecked);
 			}
 		});
 
-		populateCheckList(person, checkListAdapter);
+		checkListAdapter.addAll(table.getConsumables());
 
 	}
-
-	private void populateCheckList(Person person,
-			final ConsumableCheckListAdapter checkListAdapter) {
-		for (Consumable consumable : table.getConsumables()) {
-			checkListAdapter.add(consumable, false);
-		}
-
-		for (Consumable consumable : person.getConsumables()) {
-			checkListAdapter.setChecked(consumable.getId(), true);
-		}
+	
+	@Override
+	protected void onPause() {
+		super.onPause();
+		
+		table.flush();
 	}
-
-	class ConsumableCheckListAdapter extends BaseAdapter{
+	
+	@Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        MenuInflater inflater = getMenuInflater();
+        inflater.inflate(R.menu.check_list, menu);
+        return true;
+    }
+    
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+        case R.id.check_all:
+        	checkListAdapter.setAllChecked(true);
+        	return true;
+        case R.id.uncheck_all:
+        	checkListAdapter.setAllChecked(false);
+        	return true;
+        default:
+            return super.onOptionsItemSelected(item);
+        }
+    }
+
+	class ConsumableCheckListAdapter extends BaseAdapter implements Filterable {
 
 		private Person person;
-		private TextView price;
+		private TextBuffer price;
 		private LayoutInflater mInflater;
 		private ArrayList<Consumable> items = new ArrayList<Consumable>();
-		private HashMap<Integer, Boolean> itemsCheck = new HashMap<Integer, Boolean>();
+		private List<Consumable> mine;
+		private CharSequence prefix;
+		private List<Consumable> matches;
 
-		public void add (Consumable consumable, Boolean checked){
-			items.add(consumable);
-			itemsCheck.put(consumable.getId(), checked);
+		public void addAll (Collection<Consumable> added) {
+			items.addAll(added);
 			notifyDataSetChanged();
 		}
 
-		public void remove (Consumable consumable) {
-			items.remove(consumable);
-			itemsCheck.remove(consumable.getId());
+		/**
+		 * Shows only the items person shares right now, or every row again.
+		 * Rows unchecked afterwards stay until the filter is toggled.
+		 */
+		public void setMineOnly(boolean mineOnly) {
+			if (mineOnly) {
+				mine = new ArrayList<Consumable>();
+				for (Consumable consumable : items) {
+					if (consumable.isConsumedBy(person))
+						mine.add(consumable);
+				}
+			}
+			else {
+				mine = null;
+			}
 			notifyDataSetChanged();
 		}
 
-		public void clear () {
-			items.clear();
-			itemsCheck.clear();
+		/**
+		 * Checks or unchecks every row shown. When that is the whole table it
+		 * takes a single statement.
+		 */
+		public void setAllChecked(boolean checked) {
+			List<Consumable> shown = visible();
+			if (shown.size() == table.getNumberOfConsumables()) {
+				if (checked)
+					table.addEveryConsumableToPerson(person);
+				else
+					table.removeEveryConsumableFromPerson(person);
+			}
+			else if (checked) {
+				table.addConsumablesToPerson(shown, person);
+			}
+			else {
+				table.removeConsumablesFromPerson(shown, person);
+			}
+
+			price.setPrice(table.getMoneyFormatter(), table.getPersonalBill(person));
 			notifyDataSetChanged();
 		}
 
-		public void setChecked(int id, Boolean checked){
-			itemsCheck.put(id, checked);
+		@Override
+		public void notifyDataSetChanged() {
+			matches = null;
+			super.notifyDataSetChanged();
 		}
 
-		public Boolean isChecked (Consumable consumable) {
-			return itemsCheck.get(consumable.getId());
+		/**
+		 * @return the rows shown: all of them or only the ones the "mine"
+		 *         filter kept, narrowed to the names starting with the
+		 *         filter prefix while filtering
+		 */
+		private List<Consumable> visible() {
+			List<Consumable> rows = (mine == null) ? items : mine;
+			if (prefix == null)
+				return rows;
+			if (matches == null) {
+				if (mine == null) {
+					matches = table.findConsumables(prefix);
+				}
+				else {
+					matches = new ArrayList<Consumable>();
+					for (Consumable consumable : mine) {
+						if (consumable.getName().regionMatches(true, 0, prefix.toString(), 0, prefix.length()))
+							matches.add(consumable);
+					}
+				}
+			}
+			return matches;
 		}
 
-		@Override
-		public void notifyDataSetChanged() {
-			super.notifyDataSetChanged();
+		public Filter getFilter() {
+			return filter;
 		}
 
+		private final PrefixFilter filter = new PrefixFilter() {
+
+			@Override
+			void apply(CharSequence prefix) {
+				ConsumableCheckListAdapter.this.prefix = prefix;
+				notifyDataSetChanged();
+			}
+		};
+
 		public ConsumableCheckListAdapter(Context context, Person person, TextView textView) {
 			mInflater = (LayoutInflater)context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
 			this.person = person; 
-			this.price = textView;
+			this.price = new TextBuffer(textView);
 		}
 
 		/**
@@ -133,7 +212,7 @@ public class ConsumedItemsActivity extends Activity {
 		 * @see android.widget.ListAdapter#getCount()
 		 */
 		public int getCount() {
-			return itemsCheck.size();
+			return visible().size();
 		}
 
 		/**
@@ -149,55 +228,75 @@ public class ConsumedItemsActivity extends Activity {
 		}
 
 		/**
-		 * Use the array index as a unique id.
+		 * Use the consumable id, which does not change as rows come and go.
 		 * 
 		 * @see android.widget.ListAdapter#getItemId(int)
 		 */
 		public long getItemId(int position) {
-			return position;
+			return visible().get(position).getId();
+		}
+		
+		@Override
+		public boolean hasStableIds() {
+			return true;
 		}
 
 		/* Minha propria view, tirada do xml list_item*/
-		public View getView(final int position, View convertView, ViewGroup parent) {
+		public View getView(int position, View convertView, ViewGroup parent) {
 			View v;
+			RowHolder holder;
 			if (convertView == null) {
 				v = mInflater.inflate(R.layout.checklist_item, parent, false);
+				holder = new RowHolder(v);
+				v.setTag(holder);
+				holder.checkBox.setTag(holder);
+				holder.checkBox.setOnCheckedChangeListener(toggle);
 			}
 			else {
 				v = convertView;
+				holder = (RowHolder) v.getTag();
 			}
 
-			TextView itemView = (TextView) v.findViewById(R.id.item);
-			CheckBox checkBoxView = (CheckBox) v.findViewById(R.id.checkbox);
+			Consumable consumable = visible().get(position);
+			holder.position = position;
 
-			final Consumable consumable = items.get(position);
-			String itemName = consumable.getName();
-			Boolean checked = itemsCheck.get(consumable.getId());
+			holder.name.setText(consumable.getName());
+			holder.checkBox.setChecked(consumable.isConsumedBy(person));
 
-			checkBoxView.setOnCheckedChangeListener(new OnCheckedChangeListener() {
-				@Override
-				public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+			return v;
+		}
 
-					Log.d("tag", "entrei");
-					if(itemsCheck.get(consumable.getId())!=isChecked){
-						if(isChecked){
-							table.addConsumableToPerson(consumable, person);
-						}else{
-							table.removeConsumableFromPerson(consumable, person);
-						}
-					}
+		/** Views of a row, looked up once, and what the row is showing. */
+		private class RowHolder {
+			final TextView name;
+			final CheckBox checkBox;
+			int position;
 
-					setChecked(consumable.getId(), isChecked);
+			RowHolder(View row) {
+				name = (TextView) row.findViewById(R.id.item);
+				checkBox = (CheckBox) row.findViewById(R.id.checkbox);
+			}
+		}
 
-					price.setText(table.printPrice(table.getPersonalBill(person)));
-				}
-			});
+		private final OnCheckedChangeListener toggle = new OnCheckedChangeListener() {
+			@Override
+			public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+				Consumable consumable = visible().get(((RowHolder) buttonView.getTag()).position);
+				// Rebinding a row sets the box to what it already is
+				if (consumable.isConsumedBy(person) == isChecked)
+					return;
 
-			itemView.setText(itemName);
-			checkBoxView.setChecked(checked);			
+				Log.d("tag", "entrei");
 
-			return v;
-		}
+				if (isChecked) {
+					table.addConsumableToPerson(consumable, person);
+				} else {
+					table.removeConsumableFromPerson(consumable, person);
+				}
+
+				price.setPrice(table.getMoneyFormatter(), table.getPersonalBill(person));
+			}
+		};
 
 	}
 }
\ No newline at end of file
@@ -9,16 +9,15 @@ import android.content.DialogInterface;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.View.OnClickListener;
-import android.widget.BaseAdapter;
 import android.widget.Button;
 import android.widget.EditText;
 
 public class OptionsMenu {
-	public static boolean optionsMenuItemPicker(MenuItem item, final Activity activity, BaseAdapter adapter) {
+	public static boolean optionsMenuItemPicker(MenuItem item, final Activity activity) {
 		Context context = (Context)activity;
 		switch (item.getItemId()) {
         case R.id.clear:
-        	showClearTableDialog(context, adapter);
+        	showClearTableDialog(context);
         	return true;
         case R.id.tip:
         	activity.showDialog(Table.TIP_DIALOG);
@@ -30,7 +29,7 @@ public class OptionsMenu {
 		}
 	}
 	
-	private static void showClearTableDialog(final Context context, final BaseAdapter adapter) {
+	private static void showClearTableDialog(final Context context) {
 		AlertDialog.Builder builder = new AlertDialog.Builder(context);
 		builder.setMessage(R.string.confirmClearTable)
 		.setCancelable(false)
@@ -38,8 +37,7 @@ public class OptionsMenu {
 			
 			@Override
 			public void onClick(DialogInterface dialog, int which) {
-				TableManager.getInstance(context).clear();				
-				adapter.notifyDataSetChanged();
+				TableManager.getInstance(context).clear();
 	        }
 		})
 		.setNegativeButton(R.string.cancel, new DialogInterface.OnClickListener() {
@@ -53,7 +51,7 @@ public class OptionsMenu {
 		alert.show();
 	}
 
-	public static Dialog createNewTipDialog(final Context context, final BaseAdapter adapter) {
+	public static Dialog createNewTipDialog(final Context context) {
 		final Dialog dialog = new Dialog(context);
 			
 		dialog.setContentView(R.layout.tip_dialog);
@@ -70,7 +68,6 @@ public class OptionsMenu {
 				int tipValue = Integer.parseInt(tipValueText.getText().toString());
 				TableManager.getInstance(context).setTip(tipValue);
 				dialog.dismiss();
-				adapter.notifyDataSetChanged();
 			}
 		});
 		
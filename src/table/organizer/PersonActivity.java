@@ -1,8 +1,14 @@
 package table.organizer;
 
+import java.util.List;
+
 import table.organizer.exceptions.DuplicatePersonException;
+import table.organizer.model.Consumable;
+import table.organizer.model.MoneyFormatter;
 import table.organizer.model.Person;
 import table.organizer.model.TableManager;
+import table.organizer.model.TableManager.OnTableLoadedListener;
+import table.organizer.model.TableManager.SimpleOnTableChangedListener;
 import android.app.AlertDialog;
 import android.app.Dialog;
 import android.app.ListActivity;
@@ -20,6 +26,8 @@ import android.view.ViewGroup;
 import android.widget.BaseAdapter;
 import android.widget.Button;
 import android.widget.EditText;
+import android.widget.Filter;
+import android.widget.Filterable;
 import android.widget.ListView;
 import android.widget.TextView;
 import android.widget.Toast;
@@ -29,20 +37,137 @@ public class PersonActivity extends ListActivity {
 	protected static final int DIALOG_CREATE_ITEM = 0;
 	final String tag = "TAG";
 	PersonAdapter personAdapter;
-	final private TableManager table = TableManager.getInstance(this);
+	private TableManager table;
+	private TextBuffer tabTotal;
 
 	/** Called when the activity is first created. */
 	@Override
 	public void onCreate(Bundle savedInstanceState) {
 		
 		super.onCreate(savedInstanceState);
+		setContentView(R.layout.loading_list);
 		
-		ListView lv = getListView();
-		personAdapter = new PersonAdapter(this);
-		lv.addHeaderView(makeListHeader(personAdapter));
-		setListAdapter(personAdapter);
-		lv.setTextFilterEnabled(true);
-
+		TableManager.getInstanceAsync(this, loadListener);
+	}
+	
+	/**
+	 * Fills the list once the table is loaded. Unregistered in onDestroy so
+	 * that a load finishing after the screen is gone does not touch it.
+	 */
+	private final OnTableLoadedListener loadListener = new OnTableLoadedListener() {
+		
+		@Override
+		public void onTableLoaded(TableManager loaded) {
+			table = loaded;
+			
+			ListView lv = getListView();
+			personAdapter = new PersonAdapter(PersonActivity.this);
+			lv.addHeaderView(makeListHeader(personAdapter));
+			setListAdapter(personAdapter);
+			lv.setTextFilterEnabled(true);
+			
+			table.addOnTableChangedListener(tableListener);
+			findViewById(R.id.loading).setVisibility(View.GONE);
+		}
+		
+		@Override
+		public void onTableLoadFailed(RuntimeException e) {
+			findViewById(R.id.loading).setVisibility(View.GONE);
+			Toast.makeText(getApplicationContext(), R.string.tableLoadError, Toast.LENGTH_LONG).show();
+		}
+	};
+	
+	@Override
+	protected void onDestroy() {
+		super.onDestroy();
+		
+		TableManager.removeOnTableLoadedListener(loadListener);
+		if (table != null)
+			table.removeOnTableChangedListener(tableListener);
+	}
+	
+	/**
+	 * Keeps the list and the tab total up to date, rebinding only the rows
+	 * whose bill changed.
+	 */
+	private final SimpleOnTableChangedListener tableListener = new SimpleOnTableChangedListener() {
+		
+		@Override
+		public void onPersonAdded(Person person, int position) {
+			personAdapter.notifyDataSetChanged();
+		}
+		
+		@Override
+		public void onPersonRemoved(int id, int position) {
+			personAdapter.notifyDataSetChanged();
+		}
+		
+		@Override
+		public void onPersonRenamed(Person person, int position) {
+			// May move the person in or out of the filtered rows
+			personAdapter.notifyDataSetChanged();
+		}
+		
+		@Override
+		public void onConsumableAdded(Consumable consumable, int position) {
+			updateTabTotal();
+		}
+		
+		@Override
+		public void onConsumableRemoved(int id, int position, final List<Person> sharers) {
+			updateTabTotal();
+			refreshRows(new VisibleRows.Matcher() {
+				
+				@Override
+				public boolean matches(int position) {
+					return sharers.contains(personAdapter.getPerson(position));
+				}
+			});
+		}
+		
+		@Override
+		public void onAssignmentChanged(final Person person, final Consumable consumable, boolean assigned) {
+			refreshRows(new VisibleRows.Matcher() {
+				
+				@Override
+				public boolean matches(int position) {
+					Person shown = personAdapter.getPerson(position);
+					return shown == person || consumable.isConsumedBy(shown);
+				}
+			});
+		}
+		
+		@Override
+		public void onConsumableSharesChanged(Consumable consumable) {
+			refreshRows(null);
+		}
+		
+		@Override
+		public void onPersonConsumablesChanged(Person person) {
+			refreshRows(null);
+		}
+		
+		@Override
+		public void onTipChanged(int tip) {
+			updateTabTotal();
+			refreshRows(null);
+		}
+		
+		@Override
+		public void onTableCleared() {
+			updateTabTotal();
+			personAdapter.notifyDataSetChanged();
+		}
+		
+		@Override
+		public void onTableRolledBack() {
+			updateTabTotal();
+			personAdapter.notifyDataSetChanged();
+		}
+	};
+	
+	private void refreshRows(VisibleRows.Matcher matcher) {
+		VisibleRows.refresh(getListView(), personAdapter, matcher);
 	}
 	
 	@Override
@@ -55,7 +180,7 @@ public class PersonActivity extends ListActivity {
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         // Handle item selection
-    	if (!OptionsMenu.optionsMenuItemPicker(item, this, personAdapter)){
+    	if (personAdapter == null || !OptionsMenu.optionsMenuItemPicker(item, this)){
     		return super.onOptionsItemSelected(item);
     	}
     	return true;
@@ -63,13 +188,6 @@ public class PersonActivity extends ListActivity {
 
 	
 
-	@Override
-	public void onResume() {
-		super.onResume();
-		
-		personAdapter.notifyDataSetChanged();
-	}
-	
 	@Override
 	protected Dialog onCreateDialog(int id) {
 		Dialog dialog = null;
@@ -79,7 +197,7 @@ public class PersonActivity extends ListActivity {
 	    		dialog = createNewItemDialog();
 	    		break;
 	    	case Table.TIP_DIALOG:
-	    		dialog = OptionsMenu.createNewTipDialog(this, personAdapter);
+	    		dialog = OptionsMenu.createNewTipDialog(this);
 	    		break;
 	    	default:
 	    }
@@ -124,18 +242,16 @@ public class PersonActivity extends ListActivity {
 		return dialog;
 	}
 	
-	private String getTabTotalText(){
-		return table.printPrice(table.getTotalBill())
-				+ " + " + table.getTip() + "% = "
-				+ table.printPrice(table.getTotalBillWithTip());
-	}
-	
 	public void updateTabTotal() {
-		TextView tabTotal = (TextView) findViewById(R.id.tab_total);
+		MoneyFormatter money = table.getMoneyFormatter();
 		
-		String text = getTabTotalText();
-		
-		tabTotal.setText(text);
+		tabTotal.clear();
+		tabTotal.appendPrice(money, table.getTotalBill());
+		tabTotal.append(" + ");
+		tabTotal.appendNumber(table.getTip());
+		tabTotal.append("% = ");
+		tabTotal.appendPrice(money, table.getTotalBillWithTip());
+		tabTotal.show();
 	}
 
 	private View makeListHeader(final PersonAdapter personAdapter) {
@@ -147,35 +263,53 @@ public class PersonActivity extends ListActivity {
 			@Override
 			public void onClick(View v) {
 				showDialog(DIALOG_CREATE_ITEM);
-				personAdapter.notifyDataSetChanged();	
 			}
 		});
 		
-		TextView tabTotal = (TextView) v.findViewById(R.id.tab_total);
-		String text = getTabTotalText();
-
-		tabTotal.setText(text);
+		tabTotal = new TextBuffer((TextView) v.findViewById(R.id.tab_total), 2 * MoneyFormatter.MAX_LENGTH + 16);
+		updateTabTotal();
 		return v;
 	}
 
-	private class PersonAdapter extends BaseAdapter {
+	private class PersonAdapter extends BaseAdapter implements Filterable {
 		private LayoutInflater mInflater;
+		private CharSequence prefix;
+		private List<Person> matches;
 		
-		public void add (String name) throws DuplicatePersonException{
-			table.addPerson(name);
-			notifyDataSetChanged();
-		}
-		
-		public void remove (String name){
-			table.removePerson(name);
-			notifyDataSetChanged();
+		/**
+		 * @return the person shown at position, which is not the table position
+		 *         while filtering
+		 */
+		public Person getPerson(int position) {
+			return (matches == null) ? table.getPerson(position) : matches.get(position);
 		}
 		
 		@Override
 		public void notifyDataSetChanged() {
+			// The matches were copied before the change, so look them up again
+			matches = (prefix == null) ? null : table.findPersons(prefix);
 			super.notifyDataSetChanged();
-
-			updateTabTotal();
+		}
+		
+		public Filter getFilter() {
+			return filter;
+		}
+		
+		private final PrefixFilter filter = new PrefixFilter() {
+			
+			@Override
+			void apply(CharSequence prefix) {
+				PersonAdapter.this.prefix = prefix;
+				notifyDataSetChanged();
+			}
+		};
+		
+		public void add (String name) throws DuplicatePersonException{
+			table.addPerson(name);
+		}
+		
+		public void remove (int id){
+			table.removePerson(id);
 		}
 		
 		public PersonAdapter(Context context) {
@@ -189,7 +323,7 @@ public class PersonActivity extends ListActivity {
 		 * @see android.widget.ListAdapter#getCount()
 		 */
 		public int getCount() {
-			return table.getNumberOfPersons();
+			return (matches == null) ? table.getNumberOfPersons() : matches.size();
 		}
 
 		/**
@@ -205,74 +339,98 @@ public class PersonActivity extends ListActivity {
 		}
 
 		/**
-		 * Use the array index as a unique id.
+		 * Use the person id, which does not change as rows come and go.
 		 * 
 		 * @see android.widget.ListAdapter#getItemId(int)
 		 */
 		public long getItemId(int position) {
-			return position;
+			return getPerson(position).getId();
+		}
+		
+		@Override
+		public boolean hasStableIds() {
+			return true;
 		}
 
 		/* Minha propria view, tirada do xml list_item*/
-		public View getView(final int position, View convertView, ViewGroup parent) {
+		public View getView(int position, View convertView, ViewGroup parent) {
 			View v;
+			RowHolder holder;
 			if (convertView == null) {
 				v = mInflater.inflate(R.layout.person_item, parent, false);
+				holder = new RowHolder(v);
+				v.setTag(holder);
+				v.setOnClickListener(openPerson);
+				holder.remove.setTag(holder);
+				holder.remove.setOnClickListener(confirmRemove);
 			}
 			else {
 				v = convertView;
+				holder = (RowHolder) v.getTag();
 			}
 			
-			TextView personView = (TextView) v.findViewById(R.id.person);
-			TextView priceView = (TextView) v.findViewById(R.id.price);
-			Button removeButton = (Button) v.findViewById(R.id.remove);
+			Person person = getPerson(position);
+			holder.personId = person.getId();
 			
-			final Person person = table.getPerson(position);
+			holder.name.setText(person.getName());
+			holder.price.setPrice(table.getMoneyFormatter(), table.getPersonalBill(person));
 			
-			personView.setText(person.getName());
-			priceView.setText(table.printPrice(table.getPersonalBill(person)));
+			return v;
+		}
+		
+		/** Views of a row, looked up once, and what the row is showing. */
+		private class RowHolder {
+			final TextView name;
+			final TextBuffer price;
+			final Button remove;
+			int personId;
 			
-			v.setOnClickListener(new OnClickListener() {
-				
-				@Override
-				public void onClick(View v) {
-					Intent intent = new Intent(PersonActivity.this, ConsumedItemsActivity.class);
-					Bundle extras = new Bundle();
-					extras.putInt(table.POSITION, position);
-					intent.putExtras(extras);
-					startActivity(intent);
-					notifyDataSetChanged();
-				}
-			});
+			RowHolder(View row) {
+				name = (TextView) row.findViewById(R.id.person);
+				price = new TextBuffer((TextView) row.findViewById(R.id.price));
+				remove = (Button) row.findViewById(R.id.remove);
+			}
+		}
+		
+		private final OnClickListener openPerson = new OnClickListener() {
 			
-			removeButton.setOnClickListener(new OnClickListener() {
-				
-				@Override
-				public void onClick(View v) {
-					AlertDialog.Builder builder = new AlertDialog.Builder(PersonActivity.this);
-					builder.setMessage(R.string.confirmRemovePerson)
-					.setCancelable(false)
-					.setPositiveButton(R.string.ok, new DialogInterface.OnClickListener() {
-						
-						@Override
-						public void onClick(DialogInterface dialog, int which) {
-							remove(person.getName());
-				        }
-					})
-					.setNegativeButton(R.string.cancel, new DialogInterface.OnClickListener() {
-						
-						@Override
-						public void onClick(DialogInterface dialog, int which) {
-							dialog.cancel();
-						}
-					});
-					AlertDialog alert = builder.create();
-					alert.show();
-				}
-			});
+			@Override
+			public void onClick(View v) {
+				RowHolder holder = (RowHolder) v.getTag();
+				Intent intent = new Intent(PersonActivity.this, ConsumedItemsActivity.class);
+				Bundle extras = new Bundle();
+				extras.putInt(TableManager.PERSON_ID, holder.personId);
+				intent.putExtras(extras);
+				startActivity(intent);
+			}
+		};
+		
+		private final OnClickListener confirmRemove = new OnClickListener() {
 			
-			return v;
-		}
+			@Override
+			public void onClick(View v) {
+				final int personId = ((RowHolder) v.getTag()).personId;
+				AlertDialog.Builder builder = new AlertDialog.Builder(PersonActivity.this);
+				builder.setMessage(R.string.confirmRemovePerson)
+				.setCancelable(false)
+				.setPositiveButton(R.string.ok, new DialogInterface.OnClickListener() {
+					
+					@Override
+					public void onClick(DialogInterface dialog, int which) {
+						remove(personId);
+			        }
+				})
+				.setNegativeButton(R.string.cancel, new DialogInterface.OnClickListener() {
+					
+					@Override
+					public void onClick(DialogInterface dialog, int which) {
+						dialog.cancel();
+					}
+				});
+				AlertDialog alert = builder.create();
+				alert.show();
+			}
+		};
 
 	}
 }
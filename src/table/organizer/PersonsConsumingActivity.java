@@ -1,7 +1,8 @@
 package table.organizer;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.List;
 
 import table.organizer.model.Consumable;
 import table.organizer.model.Person;
@@ -19,12 +20,15 @@ import android.widget.BaseAdapter;
 import android.widget.CheckBox;
 import android.widget.CompoundButton;
 import android.widget.CompoundButton.OnCheckedChangeListener;
+import android.widget.Filter;
+import android.widget.Filterable;
 import android.widget.ListView;
 import android.widget.TextView;
 
 public class PersonsConsumingActivity extends Activity {
 
 	TableManager table = TableManager.getInstance(this);
+	private PersonCheckListAdapter checkListAdapter;
 
 	/** Called when the activity is first created. */
 	@Override
@@ -34,8 +38,12 @@ public class PersonsConsumingActivity extends Activity {
 		setContentView(R.layout.consumed_items_layout);
 
 		Bundle extras = getIntent().getExtras();
-		int position = extras.getInt(table.POSITION);
-		final Consumable consumable = table.getConsumable(position);
+		final Consumable consumable = table.getConsumableById(extras.getInt(TableManager.CONSUMABLE_ID));
+		if (consumable == null) {
+			// Removed while we were in the background
+			finish();
+			return;
+		}
 
 		TextView name = (TextView) findViewById(R.id.name);
 		TextView price = (TextView) findViewById(R.id.price);
@@ -43,10 +51,10 @@ public class PersonsConsumingActivity extends Activity {
 		checkBox.setText(R.string.personsConsuming);
 
 		name.setText(consumable.getName());
-		price.setText(table.printPrice(consumable.getPricePerPerson()));
+		price.setText(table.getMoneyFormatter().format(consumable.getPricePerPerson()));
 
 		ListView lv = (ListView) findViewById(R.id.items_list);
-		final PersonCheckListAdapter checkListAdapter = new PersonCheckListAdapter(this, consumable, price);
+		checkListAdapter = new PersonCheckListAdapter(this, consumable, price);
 
 		lv.setAdapter(checkListAdapter);
 
@@ -56,20 +64,11 @@ public class PersonsConsumingActivity extends Activity {
 
 			@Override
 			public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
-				if (isChecked) {
-					for (Person person: table.getPersons()) {
-						if (!checkListAdapter.isChecked(person))
-							checkListAdapter.remove(person);
-					}
-				}
-				else {
-					checkListAdapter.clear();
-					populateCheckList(consumable, checkListAdapter);
-				}
+				checkListAdapter.setMineOnly(isChecked);
 			}
 		});
 
-		populateCheckList(consumable, checkListAdapter);
+		checkListAdapter.addAll(table.getPersons());
 
 	}
 	
@@ -78,10 +77,18 @@ public class PersonsConsumingActivity extends Activity {
 		super.onResume();
 	}
 	
+	@Override
+	protected void onPause() {
+		super.onPause();
+		
+		table.flush();
+	}
+	
 	@Override
     public boolean onCreateOptionsMenu(Menu menu) {
         MenuInflater inflater = getMenuInflater();
         inflater.inflate(R.menu.menu, menu);
+        inflater.inflate(R.menu.check_list, menu);
         return true;
     }
     
@@ -95,65 +102,120 @@ public class PersonsConsumingActivity extends Activity {
             return true;
         case R.id.help:
             return true;
+        case R.id.check_all:
+        	checkListAdapter.setAllChecked(true);
+        	return true;
+        case R.id.uncheck_all:
+        	checkListAdapter.setAllChecked(false);
+        	return true;
         default:
             return super.onOptionsItemSelected(item);
         }
     }
 
-	private void populateCheckList(Consumable consumable,
-			final PersonCheckListAdapter checkListAdapter) {
-		for (Person person : table.getPersons()) {
-			checkListAdapter.add(person, false);
-		}
-
-		for (Person person : consumable.getPersons()) {
-			checkListAdapter.setChecked(person.getName(), true);
-		}
-	}
-
-	class PersonCheckListAdapter extends BaseAdapter{
+	class PersonCheckListAdapter extends BaseAdapter implements Filterable {
 
 		private Consumable consumable;
-		private TextView price;
+		private TextBuffer price;
 		private LayoutInflater mInflater;
 		private ArrayList<Person> items = new ArrayList<Person>();
-		private HashMap<String, Boolean> itemsCheck = new HashMap<String, Boolean>();
+		private List<Person> mine;
+		private CharSequence prefix;
+		private List<Person> matches;
 
-		public void add (Person person, Boolean checked){
-			items.add(person);
-			itemsCheck.put(person.getName(), checked);
+		public void addAll (Collection<Person> added) {
+			items.addAll(added);
 			notifyDataSetChanged();
 		}
 
-		public void remove (Person person) {
-			items.remove(person);
-			itemsCheck.remove(person.getName());
+		/**
+		 * Shows only the persons sharing consumable right now, or every row
+		 * again. Rows unchecked afterwards stay until the filter is toggled.
+		 */
+		public void setMineOnly(boolean mineOnly) {
+			if (mineOnly) {
+				mine = new ArrayList<Person>();
+				for (Person person : items) {
+					if (consumable.isConsumedBy(person))
+						mine.add(person);
+				}
+			}
+			else {
+				mine = null;
+			}
 			notifyDataSetChanged();
 		}
 
-		public void clear () {
-			items.clear();
-			itemsCheck.clear();
+		/**
+		 * Checks or unchecks every row shown. When that is the whole table it
+		 * takes a single statement.
+		 */
+		public void setAllChecked(boolean checked) {
+			List<Person> shown = visible();
+			if (shown.size() == table.getNumberOfPersons()) {
+				if (checked)
+					table.addConsumableToEveryone(consumable);
+				else
+					table.removeConsumableFromEveryone(consumable);
+			}
+			else if (checked) {
+				table.addConsumableToPersons(consumable, shown);
+			}
+			else {
+				table.removeConsumableFromPersons(consumable, shown);
+			}
+
+			price.setPrice(table.getMoneyFormatter(), consumable.getPricePerPerson());
 			notifyDataSetChanged();
 		}
 
-		public void setChecked(String name, Boolean checked){
-			itemsCheck.put(name, checked);
+		@Override
+		public void notifyDataSetChanged() {
+			matches = null;
+			super.notifyDataSetChanged();
 		}
 
-		public Boolean isChecked (Person person) {
-			return itemsCheck.get(person.getName());
+		/**
+		 * @return the rows shown: all of them or only the ones the "mine"
+		 *         filter kept, narrowed to the names starting with the
+		 *         filter prefix while filtering
+		 */
+		private List<Person> visible() {
+			List<Person> rows = (mine == null) ? items : mine;
+			if (prefix == null)
+				return rows;
+			if (matches == null) {
+				if (mine == null) {
+					matches = table.findPersons(prefix);
+				}
+				else {
+					matches = new ArrayList<Person>();
+					for (Person person : mine) {
+						if (person.getName().regionMatches(true, 0, prefix.toString(), 0, prefix.length()))
+							matches.add(person);
+					}
+				}
+			}
+			return matches;
 		}
 
-		@Override
-		public void notifyDataSetChanged() {
-			super.notifyDataSetChanged();
+		public Filter getFilter() {
+			return filter;
 		}
 
+		private final PrefixFilter filter = new PrefixFilter() {
+
+			@Override
+			void apply(CharSequence prefix) {
+				PersonCheckListAdapter.this.prefix = prefix;
+				notifyDataSetChanged();
+			}
+		};
+
 		public PersonCheckListAdapter(Context context, Consumable consumable, TextView textView) {
 			mInflater = (LayoutInflater)context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
 			this.consumable = consumable; 
-			this.price = textView;
+			this.price = new TextBuffer(textView);
 		}
 
 		/**
@@ -163,7 +225,7 @@ public class PersonsConsumingActivity extends Activity {
 		 * @see android.widget.ListAdapter#getCount()
 		 */
 		public int getCount() {
-			return itemsCheck.size();
+			return visible().size();
 		}
 
 		/**
@@ -179,54 +241,73 @@ public class PersonsConsumingActivity extends Activity {
 		}
 
 		/**
-		 * Use the array index as a unique id.
+		 * Use the person id, which does not change as rows come and go.
 		 * 
 		 * @see android.widget.ListAdapter#getItemId(int)
 		 */
 		public long getItemId(int position) {
-			return position;
+			return visible().get(position).getId();
+		}
+		
+		@Override
+		public boolean hasStableIds() {
+			return true;
 		}
 
 		/* Minha propria view, tirada do xml list_item*/
-		public View getView(final int position, View convertView, ViewGroup parent) {
+		public View getView(int position, View convertView, ViewGroup parent) {
 			View v;
+			RowHolder holder;
 			if (convertView == null) {
 				v = mInflater.inflate(R.layout.checklist_item, parent, false);
+				holder = new RowHolder(v);
+				v.setTag(holder);
+				holder.checkBox.setTag(holder);
+				holder.checkBox.setOnCheckedChangeListener(toggle);
 			}
 			else {
 				v = convertView;
+				holder = (RowHolder) v.getTag();
 			}
 
-			TextView itemView = (TextView) v.findViewById(R.id.item);
-			CheckBox checkBoxView = (CheckBox) v.findViewById(R.id.checkbox);
+			Person person = visible().get(position);
+			holder.position = position;
 
-			final Person person = items.get(position);
-			String itemName = person.getName();
-			Boolean checked = itemsCheck.get(itemName);
+			holder.name.setText(person.getName());
+			holder.checkBox.setChecked(consumable.isConsumedBy(person));
 
-			checkBoxView.setOnCheckedChangeListener(new OnCheckedChangeListener() {
-				@Override
-				public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+			return v;
+		}
 
-					if(itemsCheck.get(person.getName())!=isChecked){
-						if(isChecked){
-							table.addConsumableToPerson(consumable, person);
-						}else{
-							table.removeConsumableFromPerson(consumable, person);
-						}
-					}
+		/** Views of a row, looked up once, and what the row is showing. */
+		private class RowHolder {
+			final TextView name;
+			final CheckBox checkBox;
+			int position;
 
-					setChecked(person.getName(), isChecked);
+			RowHolder(View row) {
+				name = (TextView) row.findViewById(R.id.item);
+				checkBox = (CheckBox) row.findViewById(R.id.checkbox);
+			}
+		}
 
-					price.setText(table.printPrice(consumable.getPricePerPerson()));
-				}
-			});
+		private final OnCheckedChangeListener toggle = new OnCheckedChangeListener() {
+			@Override
+			public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+				Person person = visible().get(((RowHolder) buttonView.getTag()).position);
+				// Rebinding a row sets the box to what it already is
+				if (consumable.isConsumedBy(person) == isChecked)
+					return;
 
-			itemView.setText(itemName);
-			checkBoxView.setChecked(checked);			
+				if (isChecked) {
+					table.addConsumableToPerson(consumable, person);
+				} else {
+					table.removeConsumableFromPerson(consumable, person);
+				}
 
-			return v;
-		}
+				price.setPrice(table.getMoneyFormatter(), consumable.getPricePerPerson());
+			}
+		};
 
 	}
 
@@ -0,0 +1,30 @@
+package table.organizer;
+
+import android.widget.Filter;
+
+/**
+ * Filters a list by name prefix through the TableManager name indexes.
+ * Filter runs performFiltering() on a worker thread, but the indexes are
+ * only safe to read on the UI thread, and a lookup is just two binary
+ * searches, so the work is done in publishResults() instead.
+ */
+abstract class PrefixFilter extends Filter {
+
+	@Override
+	protected FilterResults performFiltering(CharSequence constraint) {
+		FilterResults results = new FilterResults();
+		results.values = constraint;
+		return results;
+	}
+
+	@Override
+	protected void publishResults(CharSequence constraint, FilterResults results) {
+		apply((constraint == null || constraint.length() == 0) ? null : constraint);
+	}
+
+	/**
+	 * Shows only the rows whose name starts with prefix, or every row if
+	 * prefix is null.
+	 */
+	abstract void apply(CharSequence prefix);
+}
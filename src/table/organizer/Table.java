@@ -1,6 +1,7 @@
 package table.organizer;
 
 import table.organizer.model.TableManager;
+import table.organizer.model.TableManager.OnTableLoadedListener;
 import android.app.TabActivity;
 import android.content.Intent;
 import android.content.SharedPreferences;
@@ -19,7 +20,9 @@ public class Table extends TabActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.main);
         
-        TableManager.getInstance(getApplicationContext());
+        // Starts loading the saved table in the background; the tabs show a
+        // progress indicator until it is ready
+        restoreTip();
 
         Resources res = getResources(); // Resource object to get Drawables
         TabHost tabHost = getTabHost();  // The activity TabHost
@@ -49,19 +52,47 @@ public class Table extends TabActivity {
     public void onPause () {
     	super.onPause();
     	
-        SharedPreferences settings = getSharedPreferences(PREFS_NAME, 0);
-        SharedPreferences.Editor editor = settings.edit();
-        editor.putInt(TIP_KEY, TableManager.getInstance(this).getTip());
-        editor.commit();
+    	TableManager.getInstanceAsync(this, new OnTableLoadedListener() {
+			
+			@Override
+			public void onTableLoaded(TableManager table) {
+		        SharedPreferences settings = getSharedPreferences(PREFS_NAME, 0);
+		        SharedPreferences.Editor editor = settings.edit();
+		        editor.putInt(TIP_KEY, table.getTip());
+		        editor.commit();
+		        
+		        table.flush();
+			}
+			
+			@Override
+			public void onTableLoadFailed(RuntimeException e) {
+				// Nothing was loaded, so there is nothing to save
+			}
+		});
     }
     
     @Override
     public void onResume () {
     	super.onResume();
     	
+    	restoreTip();
+    }
+    
+    private void restoreTip() {
     	SharedPreferences settings = getSharedPreferences(PREFS_NAME, 0);
-    	int tip = settings.getInt(TIP_KEY, TableManager.DEFAULT_TIP);
-    	TableManager.getInstance(this).setTip(tip);
+    	final int tip = settings.getInt(TIP_KEY, TableManager.DEFAULT_TIP);
+    	TableManager.getInstanceAsync(getApplicationContext(), new OnTableLoadedListener() {
+			
+			@Override
+			public void onTableLoaded(TableManager table) {
+				table.setTip(tip);
+			}
+			
+			@Override
+			public void onTableLoadFailed(RuntimeException e) {
+				// The tip is restored again on the next resume
+			}
+		});
     }
     
 }
\ No newline at end of file
@@ -0,0 +1,72 @@
+package table.organizer;
+
+import table.organizer.model.MoneyFormatter;
+import android.widget.TextView;
+
+/**
+ * Sets numbers and prices on a TextView from a char array that is reused on
+ * every call, so rebinding a row does not create strings. TextView keeps a
+ * reference to the array it is given, so each view needs its own buffer.
+ *
+ * Text longer than one price can be composed with clear(), the append
+ * methods and show().
+ */
+class TextBuffer {
+	private final TextView view;
+	private final char[] chars;
+	private int length;
+
+	TextBuffer(TextView view) {
+		this(view, MoneyFormatter.MAX_LENGTH);
+	}
+
+	TextBuffer(TextView view, int capacity) {
+		this.view = view;
+		this.chars = new char[capacity];
+	}
+
+	void setPrice(MoneyFormatter money, int cents) {
+		clear();
+		appendPrice(money, cents);
+		show();
+	}
+
+	void setNumber(int value) {
+		clear();
+		appendNumber(value);
+		show();
+	}
+
+	void clear() {
+		length = 0;
+	}
+
+	void appendPrice(MoneyFormatter money, int cents) {
+		length += money.format(cents, chars, length);
+	}
+
+	void appendNumber(int value) {
+		long rest = value;
+		if (rest < 0) {
+			chars[length++] = '-';
+			rest = -rest;
+		}
+		int digits = 1;
+		for (long left = rest / 10; left > 0; left /= 10)
+			digits++;
+		for (int i = length + digits - 1; i >= length; i--) {
+			chars[i] = (char) ('0' + rest % 10);
+			rest /= 10;
+		}
+		length += digits;
+	}
+
+	void append(String text) {
+		text.getChars(0, text.length(), chars, length);
+		length += text.length();
+	}
+
+	void show() {
+		view.setText(chars, 0, length);
+	}
+}
@@ -0,0 +1,34 @@
+package table.organizer;
+
+import android.view.View;
+import android.widget.BaseAdapter;
+import android.widget.ListView;
+
+/**
+ * Rebinds single rows of a list in place, for changes that do not add,
+ * remove or move rows and so do not need notifyDataSetChanged().
+ */
+class VisibleRows {
+	interface Matcher {
+		boolean matches(int position);
+	}
+
+	/**
+	 * Rebinds every row on screen for which matcher says so, or all of them
+	 * if matcher is null.
+	 */
+	static void refresh(ListView list, BaseAdapter adapter, Matcher matcher) {
+		int headers = list.getHeaderViewsCount();
+		int first = list.getFirstVisiblePosition();
+		int count = adapter.getCount();
+		for (int index = 0; index < list.getChildCount(); index++) {
+			int position = first + index - headers;
+			if (position < 0 || position >= count)
+				continue;
+			if (matcher == null || matcher.matches(position)) {
+				View row = list.getChildAt(index);
+				adapter.getView(position, row, list);
+			}
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package table.organizer.model;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Sums every person's share of every consumable in one pass. The consumable
+ * slots are split into contiguous partitions, each summed into its own int
+ * array indexed by person slot, and the arrays are added up at the end.
+ * Tables too small to pay for the hand-off are summed on the calling thread.
+ */
+class BillCalculator {
+	/** Fewer consumables than this per partition are not worth a thread. */
+	static final int MIN_PARTITION = 2048;
+
+	private static final int THREADS = Runtime.getRuntime().availableProcessors();
+	private static ExecutorService workers;
+
+	private final RelationMatrix relations;
+
+	BillCalculator(RelationMatrix relations) {
+		this.relations = relations;
+	}
+
+	/**
+	 * @return each person's bill in cents, without tip, indexed by person slot
+	 */
+	int[] sumShares() {
+		final int personSlots = relations.getPersonSlots();
+		int slots = relations.columns().getSlots();
+		int partitions = Math.min(THREADS, slots / MIN_PARTITION);
+		if (partitions <= 1)
+			return sum(0, slots, personSlots);
+
+		int size = (slots + partitions - 1) / partitions;
+		List<Future<int[]>> pending = new ArrayList<Future<int[]>>(partitions - 1);
+		for (int from = size; from < slots; from += size) {
+			final int start = from;
+			final int end = Math.min(from + size, slots);
+			pending.add(workers().submit(new Callable<int[]>() {
+
+				@Override
+				public int[] call() {
+					return sum(start, end, personSlots);
+				}
+			}));
+		}
+
+		int[] bills = sum(0, size, personSlots);
+		for (Future<int[]> partition : pending) {
+			int[] partial = await(partition);
+			for (int p = 0; p < personSlots; p++) {
+				bills[p] += partial[p];
+			}
+		}
+		return bills;
+	}
+
+	private int[] sum(int from, int to, int personSlots) {
+		ConsumableColumns columns = relations.columns();
+		int[] shareCounts = columns.shareCounts;
+		int[] bills = new int[personSlots];
+		for (int c = from; c < to; c++) {
+			if (shareCounts[c] == 0)
+				continue;
+			int share = columns.pricePerPerson(c);
+			BitSet sharers = relations.sharersAt(c);
+			for (int p = sharers.nextSetBit(0); p >= 0; p = sharers.nextSetBit(p + 1)) {
+				bills[p] += share;
+			}
+		}
+		return bills;
+	}
+
+	private static int[] await(Future<int[]> partition) {
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					return partition.get();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				} catch (ExecutionException e) {
+					throw new IllegalStateException("Falha ao calcular as contas", e.getCause());
+				}
+			}
+		} finally {
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+
+	private static synchronized ExecutorService workers() {
+		if (workers == null) {
+			workers = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "TableBills");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return workers;
+	}
+}
@@ -0,0 +1,67 @@
+package table.organizer.model;
+
+/**
+ * Everyone's bill as computed by TableManager.computeAllBills(), tip
+ * included the same way as in TableManager.getPersonalBill(Person). It is
+ * a copy: later changes to the table do not show up in it.
+ */
+public final class Bills {
+	private final Person[] persons;
+	private final int[] bills;
+	private final int tip;
+	private final int total;
+
+	Bills(Person[] persons, int[] shares, int tip) {
+		this.persons = persons;
+		this.bills = new int[shares.length];
+		this.tip = tip;
+
+		int total = 0;
+		for (int p = 0; p < shares.length; p++) {
+			if (persons[p] == null)
+				continue;
+			bills[p] = (shares[p]*(100+tip))/100;
+			total += bills[p];
+		}
+		this.total = total;
+	}
+
+	/**
+	 * @return bill to be paid by person in cents, tip included
+	 * @throws IllegalArgumentException if person was not at the table when
+	 *         the bills were computed
+	 */
+	public int getBill(Person person) {
+		int slot = indexOf(persons, person);
+		if (slot < 0)
+			throw new IllegalArgumentException("Pessoa não está na mesa: " + person.getName());
+		return bills[slot];
+	}
+
+	/**
+	 * @return sum of every bill in cents, tip included
+	 */
+	public int getTotal() {
+		return total;
+	}
+
+	public int getTip() {
+		return tip;
+	}
+
+	/**
+	 * @return the index of person in persons, which is indexed by person slot
+	 *         as of when it was copied, or -1
+	 */
+	static int indexOf(Person[] persons, Person person) {
+		int slot = person.getSlot();
+		if (slot >= 0 && slot < persons.length && persons[slot] == person)
+			return slot;
+		// The person moved or left after the bills were computed
+		for (int p = 0; p < persons.length; p++) {
+			if (person.equals(persons[p]))
+				return p;
+		}
+		return -1;
+	}
+}
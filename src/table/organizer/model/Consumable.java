@@ -1,21 +1,31 @@
 package table.organizer.model;
 
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
+/**
+ * While part of a table a consumable is a flyweight over its slot: price,
+ * quantity and share count are read from the table's ConsumableColumns.
+ * Before being added and after being removed it keeps them itself.
+ */
 public class Consumable {
-	private List<Person> persons;
-	private int price; // in cents
-	private int quantity;
+	private int price; // in cents, only while detached
+	private int quantity; // only while detached
 	private String name;
 	private int id;
 	
+	private RelationMatrix relations;
+	private ConsumableColumns columns;
+	private int slot = -1;
+	private int position = -1;
+	private List<Person> personsView;
+	private int personsViewVersion;
+	
 	public Consumable(String name, int price, int quantity, int id){
 		this.name = name;
 		this.price = price;
 		this.quantity = quantity;
 		this.id = id;
-		persons = new ArrayList<Person>();
 	}
 	
 	@Override
@@ -32,32 +42,95 @@ public class Consumable {
 		return true;
 	}
 
+	@Override
+	public int hashCode() {
+		return id;
+	}
+
+	/**
+	 * Only for the thread changing the table; other threads should read
+	 * TableManager.getSnapshot().
+	 * 
+	 * @return read-only view of the persons sharing this consumable
+	 */
 	public List<Person> getPersons() {
-		return persons;
+		if (relations == null)
+			return Collections.emptyList();
+		
+		int version = relations.consumableVersion(this);
+		if (personsView == null || personsViewVersion != version) {
+			personsView = Collections.unmodifiableList(relations.sharersList(this));
+			personsViewVersion = version;
+		}
+		return personsView;
+	}
+	
+	public int getNumberOfPersons() {
+		return (relations == null) ? 0 : relations.shareCount(this);
+	}
+	
+	public boolean isConsumedBy(Person person) {
+		return relations != null && person.getSlot() >= 0 && relations.isAssigned(person, this);
+	}
+	
+	public boolean isSharedByEveryone() {
+		return relations != null && relations.isSharedByEveryone(this);
 	}
 	
-	protected void setPersons(List<Person> persons) {
-		this.persons = persons;
+	void attach(RelationMatrix relations, int slot) {
+		this.relations = relations;
+		this.columns = relations.columns();
+		this.slot = slot;
+		this.personsView = null;
 	}
 	
-	protected void addPerson(Person person){
-		this.persons.add(person);
+	void detach() {
+		if (columns != null) {
+			price = columns.prices[slot];
+			quantity = columns.quantities[slot];
+		}
+		this.relations = null;
+		this.columns = null;
+		this.slot = -1;
+		this.position = -1;
+		this.personsView = null;
+	}
+	
+	int getSlot() {
+		return slot;
+	}
+	
+	/**
+	 * @return index in TableManager.getConsumables(), or -1 if not at a table
+	 */
+	int getPosition() {
+		return position;
+	}
+	
+	void setPosition(int position) {
+		this.position = position;
 	}
 	
 	public int getPrice() {
-		return price;
+		return (columns == null) ? price : columns.prices[slot];
 	}
 	
 	protected void setPrice(int price) {
-		this.price = price;
+		if (columns == null)
+			this.price = price;
+		else
+			columns.prices[slot] = price;
 	}
 	
 	public int getQuantity() {
-		return quantity;
+		return (columns == null) ? quantity : columns.quantities[slot];
 	}
 	
 	protected void setQuantity(int quantity) {
-		this.quantity = quantity;
+		if (columns == null)
+			this.quantity = quantity;
+		else
+			columns.quantities[slot] = quantity;
 	}
 	
 	public String getName() {
@@ -69,26 +142,15 @@ public class Consumable {
 	}
 
 	public int getTotalPrice() {
-		return price * quantity;
+		return (columns == null) ? price * quantity : columns.totalPrice(slot);
 	}
 
 	public int getPricePerPerson() {
-		if(persons.size()!=0){
-			if(getTotalPrice()%persons.size() == 0){
-				return (getTotalPrice()/persons.size());	
-			} else {
-				return (getTotalPrice()/persons.size() + 1);
-			}
-		}else
-			return getTotalPrice();
+		return (columns == null) ? price * quantity : columns.pricePerPerson(slot);
 	}
 
 	public int getId() {
 		return id;
 	}
-
-	protected void removePerson(Person person) {
-		persons.remove(person);
-	}
 }
 
@@ -0,0 +1,84 @@
+package table.organizer.model;
+
+/**
+ * Column-oriented storage for the numbers of every attached consumable:
+ * price, quantity and number of sharers, each in its own int array indexed
+ * by the consumable's RelationMatrix slot. Totals and shares are computed
+ * by looping over these arrays, without touching the Consumable objects.
+ *
+ * Free slots are kept zeroed, so loops may run over every slot up to
+ * getSlots() without checking which ones are in use.
+ */
+class ConsumableColumns {
+	int[] prices = new int[16]; // in cents
+	int[] quantities = new int[16];
+	int[] shareCounts = new int[16];
+	private int slots;
+
+	void ensureCapacity(int capacity) {
+		if (capacity <= prices.length)
+			return;
+		prices = grow(prices, capacity);
+		quantities = grow(quantities, capacity);
+		shareCounts = grow(shareCounts, capacity);
+	}
+
+	void set(int slot, int price, int quantity) {
+		prices[slot] = price;
+		quantities[slot] = quantity;
+		shareCounts[slot] = 0;
+		if (slot >= slots)
+			slots = slot + 1;
+	}
+
+	void clear(int slot) {
+		prices[slot] = 0;
+		quantities[slot] = 0;
+		shareCounts[slot] = 0;
+	}
+
+	void clear() {
+		for (int slot = 0; slot < slots; slot++) {
+			clear(slot);
+		}
+		slots = 0;
+	}
+
+	/** One past the highest slot ever used. */
+	int getSlots() {
+		return slots;
+	}
+
+	int totalPrice(int slot) {
+		return prices[slot] * quantities[slot];
+	}
+
+	/**
+	 * @return what each sharer pays for the consumable in slot, rounded up,
+	 *         or its whole price if nobody shares it
+	 */
+	int pricePerPerson(int slot) {
+		int total = prices[slot] * quantities[slot];
+		int sharers = shareCounts[slot];
+		if (sharers == 0)
+			return total;
+		return (total + sharers - 1) / sharers;
+	}
+
+	/** Sum of the total price of every consumable. */
+	int totalBill() {
+		int[] prices = this.prices;
+		int[] quantities = this.quantities;
+		int total = 0;
+		for (int slot = 0; slot < slots; slot++) {
+			total += prices[slot] * quantities[slot];
+		}
+		return total;
+	}
+
+	private static int[] grow(int[] array, int capacity) {
+		int[] grown = new int[capacity];
+		System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+}
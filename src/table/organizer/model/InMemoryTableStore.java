@@ -0,0 +1,196 @@
+package table.organizer.model;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the table in plain collections, so the model can be used, tested
+ * and benchmarked on a JVM without a device. Nothing survives the process.
+ * Like SQLiteTableStore, a transaction whose work throws leaves the store
+ * as it was before the transaction began.
+ */
+public class InMemoryTableStore implements TableStore {
+	private Map<Integer, String> persons = new LinkedHashMap<Integer, String>();
+	private Map<Integer, ConsumableRow> consumables = new LinkedHashMap<Integer, ConsumableRow>();
+	private Set<Long> relations = new LinkedHashSet<Long>();
+	private int transactionDepth;
+
+	private static class ConsumableRow {
+		final String name;
+		final int price;
+		final int quantity;
+
+		ConsumableRow(String name, int price, int quantity) {
+			this.name = name;
+			this.price = price;
+			this.quantity = quantity;
+		}
+	}
+
+	private static Long relation(int person, int consumable) {
+		return ((long) person << 32) | consumable;
+	}
+
+	@Override
+	public synchronized List<Person> fetchPersons() {
+		List<Person> fetched = new ArrayList<Person>(persons.size());
+		for (Map.Entry<Integer, String> entry : persons.entrySet()) {
+			fetched.add(new Person(entry.getKey(), entry.getValue()));
+		}
+		return fetched;
+	}
+
+	@Override
+	public synchronized List<Consumable> fetchConsumables() {
+		List<Consumable> fetched = new ArrayList<Consumable>(consumables.size());
+		for (Map.Entry<Integer, ConsumableRow> entry : consumables.entrySet()) {
+			ConsumableRow row = entry.getValue();
+			fetched.add(new Consumable(row.name, row.price, row.quantity, entry.getKey()));
+		}
+		return fetched;
+	}
+
+	@Override
+	public synchronized void fetchRelations(RelationHandler handler) {
+		for (Long relation : relations) {
+			handler.onRelation((int) (relation >>> 32), (int) relation.longValue());
+		}
+	}
+
+	@Override
+	public synchronized void createPerson(int id, String name) {
+		if (!persons.containsKey(id))
+			persons.put(id, name);
+	}
+
+	@Override
+	public synchronized void updatePersonName(int id, String name) {
+		if (persons.containsKey(id))
+			persons.put(id, name);
+	}
+
+	@Override
+	public synchronized void deletePerson(int id) {
+		persons.remove(id);
+	}
+
+	@Override
+	public synchronized void createConsumable(int id, String name, int price, int quantity) {
+		if (consumables.containsKey(id))
+			throw new IllegalStateException("Não foi possível inserir consumable");
+		consumables.put(id, new ConsumableRow(name, price, quantity));
+	}
+
+	@Override
+	public synchronized void deleteConsumable(int id) {
+		consumables.remove(id);
+	}
+
+	@Override
+	public synchronized void createRelation(int person, int consumable) {
+		relations.add(relation(person, consumable));
+	}
+
+	@Override
+	public synchronized void deleteRelation(int person, int consumable) {
+		relations.remove(relation(person, consumable));
+	}
+
+	@Override
+	public synchronized void createPersonRelations(int person) {
+		for (Integer consumable : consumables.keySet()) {
+			relations.add(relation(person, consumable));
+		}
+	}
+
+	@Override
+	public synchronized void createConsumableRelations(int consumable) {
+		for (Integer person : persons.keySet()) {
+			relations.add(relation(person, consumable));
+		}
+	}
+
+	@Override
+	public synchronized void deletePersonRelations(int person) {
+		for (Iterator<Long> it = relations.iterator(); it.hasNext();) {
+			if ((int) (it.next() >>> 32) == person)
+				it.remove();
+		}
+	}
+
+	@Override
+	public synchronized void deleteConsumableRelations(int consumable) {
+		for (Iterator<Long> it = relations.iterator(); it.hasNext();) {
+			if ((int) it.next().longValue() == consumable)
+				it.remove();
+		}
+	}
+
+	@Override
+	public synchronized void createPersonRelations(int person, int[] consumables, int count) {
+		for (int i = 0; i < count; i++) {
+			if (this.consumables.containsKey(consumables[i]))
+				relations.add(relation(person, consumables[i]));
+		}
+	}
+
+	@Override
+	public synchronized void createConsumableRelations(int consumable, int[] persons, int count) {
+		for (int i = 0; i < count; i++) {
+			if (this.persons.containsKey(persons[i]))
+				relations.add(relation(persons[i], consumable));
+		}
+	}
+
+	@Override
+	public synchronized void deletePersonRelations(int person, int[] consumables, int count) {
+		for (int i = 0; i < count; i++) {
+			relations.remove(relation(person, consumables[i]));
+		}
+	}
+
+	@Override
+	public synchronized void deleteConsumableRelations(int consumable, int[] persons, int count) {
+		for (int i = 0; i < count; i++) {
+			relations.remove(relation(persons[i], consumable));
+		}
+	}
+
+	@Override
+	public synchronized void clear() {
+		relations.clear();
+		persons.clear();
+		consumables.clear();
+	}
+
+	@Override
+	public synchronized void runInTransaction(Runnable work) {
+		if (transactionDepth > 0) {
+			// The outermost transaction restores everything if this throws
+			work.run();
+			return;
+		}
+		
+		Map<Integer, String> savedPersons = new LinkedHashMap<Integer, String>(persons);
+		Map<Integer, ConsumableRow> savedConsumables = new LinkedHashMap<Integer, ConsumableRow>(consumables);
+		Set<Long> savedRelations = new LinkedHashSet<Long>(relations);
+		boolean done = false;
+		transactionDepth++;
+		try {
+			work.run();
+			done = true;
+		} finally {
+			transactionDepth--;
+			if (!done) {
+				persons = savedPersons;
+				consumables = savedConsumables;
+				relations = savedRelations;
+			}
+		}
+	}
+}
@@ -0,0 +1,167 @@
+package table.organizer.model;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.NumberFormat;
+import java.util.Locale;
+
+/**
+ * Formats amounts in cents as prices in the conventions of a locale, e.g.
+ * $1,234.05 or 1.234,05 €. The model keeps every amount in cents, so two
+ * decimals are always printed whatever the currency.
+ *
+ * format(int, char[]) writes into the caller's buffer and allocates
+ * nothing. format(int) returns a String and remembers the strings of
+ * recently formatted amounts, so that prices shown over and over are not
+ * built again.
+ */
+public class MoneyFormatter {
+	/** Longest text format(int, char[]) can write. */
+	public static final int MAX_LENGTH = 48;
+
+	private static final int MAX_AFFIX_LENGTH = 16;
+	private static final int CACHE_SIZE = 256; // power of two
+
+	private final char[] prefix;
+	private final char[] suffix;
+	private final char decimalSeparator;
+	private final char groupingSeparator;
+	private final int groupingSize; // 0 for no grouping
+
+	private final int[] cachedCents = new int[CACHE_SIZE];
+	private final String[] cachedTexts = new String[CACHE_SIZE];
+	private final char[] scratch = new char[MAX_LENGTH];
+
+	public MoneyFormatter(Locale locale) {
+		NumberFormat format = NumberFormat.getCurrencyInstance(locale);
+		DecimalFormatSymbols symbols = new DecimalFormatSymbols(locale);
+		String symbol = symbols.getCurrencySymbol();
+
+		String pattern = "\u00a4#,##0.00";
+		int grouping = 3;
+		if (format instanceof DecimalFormat) {
+			DecimalFormat decimal = (DecimalFormat) format;
+			pattern = decimal.toPattern();
+			grouping = decimal.isGroupingUsed() ? decimal.getGroupingSize() : 0;
+		}
+
+		// Only the positive subpattern matters; negatives get a leading minus
+		int semicolon = pattern.indexOf(';');
+		if (semicolon >= 0)
+			pattern = pattern.substring(0, semicolon);
+		int numberStart = firstIndexOf(pattern, "#0,.");
+		int numberEnd = lastIndexOf(pattern, "#0,.") + 1;
+
+		prefix = affix(pattern.substring(0, numberStart), symbol);
+		suffix = affix(pattern.substring(numberEnd), symbol);
+		decimalSeparator = symbols.getMonetaryDecimalSeparator();
+		groupingSeparator = symbols.getGroupingSeparator();
+		groupingSize = grouping;
+	}
+
+	/**
+	 * Writes cents as a price into buffer without allocating.
+	 *
+	 * @param buffer at least MAX_LENGTH long
+	 * @return the number of chars written
+	 */
+	public int format(int cents, char[] buffer) {
+		return format(cents, buffer, 0);
+	}
+
+	/**
+	 * Writes cents as a price into buffer from offset on without allocating.
+	 *
+	 * @param buffer with at least MAX_LENGTH chars from offset on
+	 * @return the number of chars written
+	 */
+	public int format(int cents, char[] buffer, int offset) {
+		long value = cents;
+		int length = offset;
+		if (value < 0) {
+			buffer[length++] = '-';
+			value = -value;
+		}
+
+		System.arraycopy(prefix, 0, buffer, length, prefix.length);
+		length += prefix.length;
+
+		long units = value / 100;
+		int digits = 1;
+		for (long rest = units / 10; rest > 0; rest /= 10)
+			digits++;
+		int separators = (groupingSize > 0) ? (digits - 1) / groupingSize : 0;
+
+		int i = length + digits + separators - 1;
+		for (int written = 0; written < digits; written++) {
+			if (written > 0 && groupingSize > 0 && written % groupingSize == 0)
+				buffer[i--] = groupingSeparator;
+			buffer[i--] = (char) ('0' + units % 10);
+			units /= 10;
+		}
+		length += digits + separators;
+
+		buffer[length++] = decimalSeparator;
+		buffer[length++] = (char) ('0' + (value % 100) / 10);
+		buffer[length++] = (char) ('0' + value % 10);
+
+		System.arraycopy(suffix, 0, buffer, length, suffix.length);
+		return length + suffix.length - offset;
+	}
+
+	/**
+	 * @return cents as a price, reusing the String from an earlier call for
+	 *         the same amount when it is still cached
+	 */
+	public synchronized String format(int cents) {
+		int slot = (cents ^ (cents >>> 8)) & (CACHE_SIZE - 1);
+		String text = cachedTexts[slot];
+		if (text != null && cachedCents[slot] == cents)
+			return text;
+
+		text = new String(scratch, 0, format(cents, scratch));
+		cachedCents[slot] = cents;
+		cachedTexts[slot] = text;
+		return text;
+	}
+
+	/**
+	 * Turns a pattern prefix or suffix into text: the currency sign becomes
+	 * symbol and quotes are dropped.
+	 */
+	private static char[] affix(String pattern, String symbol) {
+		if (symbol.length() > MAX_AFFIX_LENGTH / 2)
+			symbol = symbol.substring(0, MAX_AFFIX_LENGTH / 2);
+
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < pattern.length(); i++) {
+			char c = pattern.charAt(i);
+			if (c == '\u00a4')
+				text.append(symbol);
+			else if (c != '\'')
+				text.append(c);
+		}
+		if (text.length() > MAX_AFFIX_LENGTH)
+			text.setLength(MAX_AFFIX_LENGTH);
+
+		char[] chars = new char[text.length()];
+		text.getChars(0, chars.length, chars, 0);
+		return chars;
+	}
+
+	private static int firstIndexOf(String pattern, String chars) {
+		for (int i = 0; i < pattern.length(); i++) {
+			if (chars.indexOf(pattern.charAt(i)) >= 0)
+				return i;
+		}
+		return pattern.length();
+	}
+
+	private static int lastIndexOf(String pattern, String chars) {
+		for (int i = pattern.length() - 1; i >= 0; i--) {
+			if (chars.indexOf(pattern.charAt(i)) >= 0)
+				return i;
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,123 @@
+package table.organizer.model;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Keeps persons or consumables sorted by name, ignoring case, so that all
+ * the ones whose name starts with a prefix form a contiguous range found
+ * with two binary searches. Items are added and removed one at a time by
+ * shifting the arrays, which TableManager does as the table changes.
+ */
+class NameIndex<T> {
+	private String[] keys = new String[16];
+	private Object[] items = new Object[16];
+	private int size;
+
+	void add(String name, T item) {
+		String key = key(name);
+		int at = lowerBound(key);
+		if (size == keys.length) {
+			String[] grownKeys = new String[size * 2];
+			Object[] grownItems = new Object[size * 2];
+			System.arraycopy(keys, 0, grownKeys, 0, size);
+			System.arraycopy(items, 0, grownItems, 0, size);
+			keys = grownKeys;
+			items = grownItems;
+		}
+		System.arraycopy(keys, at, keys, at + 1, size - at);
+		System.arraycopy(items, at, items, at + 1, size - at);
+		keys[at] = key;
+		items[at] = item;
+		size++;
+	}
+
+	/**
+	 * @return false if item was not indexed under name
+	 */
+	boolean remove(String name, T item) {
+		String key = key(name);
+		for (int at = lowerBound(key); at < size && keys[at].equals(key); at++) {
+			if (items[at] == item) {
+				System.arraycopy(keys, at + 1, keys, at, size - at - 1);
+				System.arraycopy(items, at + 1, items, at, size - at - 1);
+				size--;
+				keys[size] = null;
+				items[size] = null;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	void clear() {
+		for (int i = 0; i < size; i++) {
+			keys[i] = null;
+			items[i] = null;
+		}
+		size = 0;
+	}
+
+	/**
+	 * @return the items whose name starts with prefix, ignoring case, sorted
+	 *         by name. It is a view: it is only valid until the next change
+	 *         to the index.
+	 */
+	List<T> startingWith(CharSequence prefix) {
+		String key = key(prefix.toString());
+		int from = lowerBound(key);
+		int to = from;
+		// Every key in the range starts with key, so the first one that does
+		// not ends it
+		int high = size;
+		while (to < high) {
+			int middle = (to + high) >>> 1;
+			if (keys[middle].startsWith(key))
+				to = middle + 1;
+			else
+				high = middle;
+		}
+		return new Range(from, to);
+	}
+
+	private int lowerBound(String key) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (keys[middle].compareTo(key) < 0)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+
+	private static String key(String name) {
+		return name.toLowerCase(Locale.getDefault());
+	}
+
+	private class Range extends AbstractList<T> {
+		private final int from;
+		private final int to;
+
+		Range(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public T get(int location) {
+			if (location < 0 || location >= to - from)
+				throw new IndexOutOfBoundsException();
+			return (T) items[from + location];
+		}
+
+		@Override
+		public int size() {
+			return to - from;
+		}
+	}
+}
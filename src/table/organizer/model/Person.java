@@ -1,20 +1,27 @@
 package table.organizer.model;
 
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 
 public class Person {
-	private List<Consumable> consumables;
 	private String name;
+	private int id;
+	private int personalBill; // in cents, kept up to date by TableManager
 	
-	public Person(String name){
+	private RelationMatrix relations;
+	private int slot = -1;
+	private int position = -1;
+	private List<Consumable> consumablesView;
+	private int consumablesViewVersion;
+	
+	public Person(int id, String name){
+		this.id = id;
 		this.name = name;
-		consumables = new ArrayList<Consumable>();
 	}
 	
-	public String getID(){
-		return name;
+	public int getId(){
+		return id;
 	}
 	
 	/**
@@ -23,26 +30,61 @@ public class Person {
 	 * @return personal bill to be paid in cents
 	 */
 	protected int getPersonalBill(){
-		int bill = 0;
+		return personalBill;
+	}
+	
+	protected void setPersonalBill(int personalBill) {
+		this.personalBill = personalBill;
+	}
+	
+	protected void addToPersonalBill(int cents) {
+		this.personalBill += cents;
+	}
+	
+	/**
+	 * Only for the thread changing the table; other threads should read
+	 * TableManager.getSnapshot().
+	 * 
+	 * @return read-only view of the consumables shared by this person
+	 */
+	public List<Consumable> getConsumables() {
+		if (relations == null)
+			return Collections.emptyList();
 		
-		for (Consumable consumable : consumables) {
-			bill += consumable.getPricePerPerson();
+		int version = relations.personVersion(this);
+		if (consumablesView == null || consumablesViewVersion != version) {
+			consumablesView = Collections.unmodifiableList(relations.itemsList(this));
+			consumablesViewVersion = version;
 		}
-		
-		return bill;
+		return consumablesView;
 	}
 	
-	public List<Consumable> getConsumables() {
-		return consumables;
+	void attach(RelationMatrix relations, int slot) {
+		this.relations = relations;
+		this.slot = slot;
+		this.consumablesView = null;
 	}
-
-	protected void setConsumables(List<Consumable> consumables) {
-		this.consumables = consumables;
+	
+	void detach() {
+		this.relations = null;
+		this.slot = -1;
+		this.position = -1;
+		this.consumablesView = null;
+	}
+	
+	int getSlot() {
+		return slot;
+	}
+	
+	/**
+	 * @return index in TableManager.getPersons(), or -1 if not at a table
+	 */
+	int getPosition() {
+		return position;
 	}
 	
-	protected void addConsumable(Consumable consumable){
-		if(consumable != null)
-			this.consumables.add(consumable);
+	void setPosition(int position) {
+		this.position = position;
 	}
 
 	@Override
@@ -55,16 +97,16 @@ public class Person {
 		if (getClass() != obj.getClass())
 			return false;
 		Person other = (Person) obj;
-		
-		if (name == null) {
-			if (other.name != null)
-				return false;
-		} else if (!name.equals(other.name))
+		if (id != other.id)
 			return false;
-		
 		return true;
 	}
 
+	@Override
+	public int hashCode() {
+		return id;
+	}
+
 	public String getName() {
 		return name;
 	}
@@ -73,8 +115,4 @@ public class Person {
 		this.name = name;
 	}
 
-	protected void removeConsumable(Consumable consumable) {
-		consumables.remove(consumable);
-	}
-
 }
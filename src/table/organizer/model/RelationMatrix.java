@@ -0,0 +1,259 @@
+package table.organizer.model;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Stores who consumes what as a bit matrix. Every attached person and
+ * consumable gets a dense slot; each consumable keeps a bitset of the person
+ * slots sharing it and each person a bitset of the consumable slots it
+ * shares, so membership, share counts and bulk unassignment are plain bit
+ * operations. Freed slots are reused. Prices, quantities and share counts
+ * are kept by slot in a ConsumableColumns.
+ *
+ * Person.getConsumables() and Consumable.getPersons() are read-only views
+ * built from these bitsets and cached until the row or column changes.
+ */
+class RelationMatrix {
+	private Person[] persons = new Person[16];
+	private Consumable[] consumables = new Consumable[16];
+	private BitSet[] itemsOf = new BitSet[16];
+	private BitSet[] sharersOf = new BitSet[16];
+	private final ConsumableColumns columns = new ConsumableColumns();
+	private int[] personVersions = new int[16];
+	private int[] consumableVersions = new int[16];
+
+	private BitSet livePersons = new BitSet();
+	private BitSet liveConsumables = new BitSet();
+	private int personCount;
+
+	void add(Person person) {
+		int slot = livePersons.nextClearBit(0);
+		if (slot >= persons.length) {
+			int capacity = persons.length * 2;
+			persons = grow(persons, new Person[capacity]);
+			itemsOf = grow(itemsOf, new BitSet[capacity]);
+			personVersions = grow(personVersions, capacity);
+		}
+
+		persons[slot] = person;
+		if (itemsOf[slot] == null)
+			itemsOf[slot] = new BitSet();
+		personVersions[slot]++;
+		livePersons.set(slot);
+		personCount++;
+		person.attach(this, slot);
+	}
+
+	void add(Consumable consumable) {
+		int slot = liveConsumables.nextClearBit(0);
+		if (slot >= consumables.length) {
+			int capacity = consumables.length * 2;
+			consumables = grow(consumables, new Consumable[capacity]);
+			sharersOf = grow(sharersOf, new BitSet[capacity]);
+			columns.ensureCapacity(capacity);
+			consumableVersions = grow(consumableVersions, capacity);
+		}
+
+		consumables[slot] = consumable;
+		if (sharersOf[slot] == null)
+			sharersOf[slot] = new BitSet();
+		columns.set(slot, consumable.getPrice(), consumable.getQuantity());
+		consumableVersions[slot]++;
+		liveConsumables.set(slot);
+		consumable.attach(this, slot);
+	}
+
+	/**
+	 * Detaches person, unassigning it from everything it shared.
+	 */
+	void remove(Person person) {
+		int slot = person.getSlot();
+		unassignAll(person);
+		persons[slot] = null;
+		livePersons.clear(slot);
+		personCount--;
+		person.detach();
+	}
+
+	/**
+	 * Detaches consumable, unassigning it from everyone sharing it.
+	 */
+	void remove(Consumable consumable) {
+		int slot = consumable.getSlot();
+		unassignAll(consumable);
+		consumables[slot] = null;
+		liveConsumables.clear(slot);
+		consumable.detach();
+		columns.clear(slot);
+	}
+
+	/**
+	 * @return false if person already shared consumable
+	 */
+	boolean assign(Person person, Consumable consumable) {
+		int p = person.getSlot();
+		int c = consumable.getSlot();
+		if (sharersOf[c].get(p))
+			return false;
+
+		sharersOf[c].set(p);
+		itemsOf[p].set(c);
+		columns.shareCounts[c]++;
+		consumableVersions[c]++;
+		personVersions[p]++;
+		return true;
+	}
+
+	/**
+	 * @return false if person did not share consumable
+	 */
+	boolean unassign(Person person, Consumable consumable) {
+		int p = person.getSlot();
+		int c = consumable.getSlot();
+		if (!sharersOf[c].get(p))
+			return false;
+
+		sharersOf[c].clear(p);
+		itemsOf[p].clear(c);
+		columns.shareCounts[c]--;
+		consumableVersions[c]++;
+		personVersions[p]++;
+		return true;
+	}
+
+	void unassignAll(Consumable consumable) {
+		int c = consumable.getSlot();
+		BitSet sharers = sharersOf[c];
+		for (int p = sharers.nextSetBit(0); p >= 0; p = sharers.nextSetBit(p + 1)) {
+			itemsOf[p].clear(c);
+			personVersions[p]++;
+		}
+		sharers.clear();
+		columns.shareCounts[c] = 0;
+		consumableVersions[c]++;
+	}
+
+	void unassignAll(Person person) {
+		int p = person.getSlot();
+		BitSet items = itemsOf[p];
+		for (int c = items.nextSetBit(0); c >= 0; c = items.nextSetBit(c + 1)) {
+			sharersOf[c].clear(p);
+			columns.shareCounts[c]--;
+			consumableVersions[c]++;
+		}
+		items.clear();
+		personVersions[p]++;
+	}
+
+	boolean isAssigned(Person person, Consumable consumable) {
+		return sharersOf[consumable.getSlot()].get(person.getSlot());
+	}
+
+	int shareCount(Consumable consumable) {
+		return columns.shareCounts[consumable.getSlot()];
+	}
+
+	boolean isSharedByEveryone(Consumable consumable) {
+		return personCount > 0 && columns.shareCounts[consumable.getSlot()] == personCount;
+	}
+
+	/** Person slots sharing consumable. Callers must not modify it. */
+	BitSet sharersOf(Consumable consumable) {
+		return sharersOf[consumable.getSlot()];
+	}
+
+	/** Person slots sharing the consumable in slot. Callers must not modify it. */
+	BitSet sharersAt(int slot) {
+		return sharersOf[slot];
+	}
+
+	/** Consumable slots shared by person. Callers must not modify it. */
+	BitSet itemsOf(Person person) {
+		return itemsOf[person.getSlot()];
+	}
+
+	/** One past the highest person slot in use. */
+	int getPersonSlots() {
+		return livePersons.length();
+	}
+
+	/** Copy of the persons by slot, with null for free slots. */
+	Person[] personsBySlot() {
+		Person[] copy = new Person[getPersonSlots()];
+		System.arraycopy(persons, 0, copy, 0, copy.length);
+		return copy;
+	}
+
+	ConsumableColumns columns() {
+		return columns;
+	}
+
+	Person personAt(int slot) {
+		return persons[slot];
+	}
+
+	Consumable consumableAt(int slot) {
+		return consumables[slot];
+	}
+
+	int personVersion(Person person) {
+		return personVersions[person.getSlot()];
+	}
+
+	int consumableVersion(Consumable consumable) {
+		return consumableVersions[consumable.getSlot()];
+	}
+
+	List<Person> sharersList(Consumable consumable) {
+		BitSet sharers = sharersOf(consumable);
+		List<Person> list = new ArrayList<Person>(shareCount(consumable));
+		for (int p = sharers.nextSetBit(0); p >= 0; p = sharers.nextSetBit(p + 1)) {
+			list.add(persons[p]);
+		}
+		return list;
+	}
+
+	List<Consumable> itemsList(Person person) {
+		BitSet items = itemsOf(person);
+		List<Consumable> list = new ArrayList<Consumable>();
+		for (int c = items.nextSetBit(0); c >= 0; c = items.nextSetBit(c + 1)) {
+			list.add(consumables[c]);
+		}
+		return list;
+	}
+
+	/**
+	 * Detaches everything and forgets every relation.
+	 */
+	void clear() {
+		for (int p = livePersons.nextSetBit(0); p >= 0; p = livePersons.nextSetBit(p + 1)) {
+			persons[p].detach();
+			persons[p] = null;
+			itemsOf[p].clear();
+			personVersions[p]++;
+		}
+		for (int c = liveConsumables.nextSetBit(0); c >= 0; c = liveConsumables.nextSetBit(c + 1)) {
+			consumables[c].detach();
+			consumables[c] = null;
+			sharersOf[c].clear();
+			consumableVersions[c]++;
+		}
+		columns.clear();
+		livePersons.clear();
+		liveConsumables.clear();
+		personCount = 0;
+	}
+
+	private static <T> T[] grow(T[] array, T[] grown) {
+		System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+
+	private static int[] grow(int[] array, int capacity) {
+		int[] grown = new int[capacity];
+		System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+}
@@ -0,0 +1,372 @@
+package table.organizer.model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+public class SQLiteTableStore implements TableStore {
+	private final String PERSON_TABLE = "Person";
+	private final String CONSUMABLE_TABLE = "Consumable";
+	private final String CONSUMES_TABLE = "Consumes";
+
+	private static final String DATABASE_NAME = "tableorganizer";
+	private static final String DATABASE_CREATE_PERSON = "create table Person(name text PRIMARY KEY NOT NULL UNIQUE);";
+	private static final String DATABASE_CREATE_CONSUMABLE = "create table Consumable(id integer PRIMARY KEY, name text NOT NULL, price integer NOT NULL, quantity integer NOT NULL);";
+	private static final String DATABASE_CREATE_CONSUMES = "create table Consumes(person text, consumable integer, FOREIGN KEY(person) REFERENCES Person(name), FOREIGN KEY(consumable) REFERENCES Consumable(id), UNIQUE(person, consumable)); ";
+
+	private static final String INSERT_PERSON = "insert or ignore into Person(id, name) values (?, ?)";
+	private static final String UPDATE_PERSON_NAME = "update Person set name=? where id=?";
+	private static final String DELETE_PERSON = "delete from Person where id=?";
+	private static final String INSERT_CONSUMABLE = "insert into Consumable(id, name, price, quantity) values (?, ?, ?, ?)";
+	private static final String DELETE_CONSUMABLE = "delete from Consumable where id=?";
+	private static final String INSERT_RELATION = "insert or ignore into Consumes(person, consumable) values (?, ?)";
+	private static final String INSERT_PERSON_RELATIONS = "insert or ignore into Consumes(person, consumable) select ?, id from Consumable";
+	private static final String INSERT_CONSUMABLE_RELATIONS = "insert or ignore into Consumes(person, consumable) select id, ? from Person";
+	private static final String DELETE_RELATION = "delete from Consumes where person=? and consumable=?";
+	private static final String DELETE_PERSON_RELATIONS = "delete from Consumes where person=?";
+	private static final String DELETE_CONSUMABLE_RELATIONS = "delete from Consumes where consumable=?";
+	private static final String INSERT_SOME_PERSON_RELATIONS = INSERT_PERSON_RELATIONS + " where id in ";
+	private static final String INSERT_SOME_CONSUMABLE_RELATIONS = INSERT_CONSUMABLE_RELATIONS + " where id in ";
+	private static final String DELETE_SOME_PERSON_RELATIONS = DELETE_PERSON_RELATIONS + " and consumable in ";
+	private static final String DELETE_SOME_CONSUMABLE_RELATIONS = DELETE_CONSUMABLE_RELATIONS + " and person in ";
+
+	/**
+	 * Most ? a single statement may bind, SQLite's default
+	 * SQLITE_MAX_VARIABLE_NUMBER.
+	 */
+	private static final int MAX_VARIABLES = 999;
+	private static final int MAX_IDS = MAX_VARIABLES - 1;
+
+	/**
+	 * Version of the schema created by the DATABASE_CREATE_* statements. Each
+	 * entry of MIGRATIONS upgrades the schema by one version from there, in
+	 * order, and must preserve the existing data.
+	 */
+	private static final int BASE_VERSION = 3;
+	private static final String[][] MIGRATIONS = {
+		// 4: index per-consumable lookups on the join table. Lookups by person
+		// are already served by the UNIQUE(person, consumable) index.
+		{ "create index ConsumesConsumable on Consumes(consumable);" },
+		// 5: key persons by an integer id instead of their name
+		{ "create table PersonById(id integer PRIMARY KEY, name text NOT NULL UNIQUE);",
+		  "insert into PersonById(name) select name from Person;",
+		  "create table ConsumesById(person integer, consumable integer, FOREIGN KEY(person) REFERENCES Person(id), FOREIGN KEY(consumable) REFERENCES Consumable(id), UNIQUE(person, consumable));",
+		  "insert into ConsumesById(person, consumable) select p.id, c.consumable from Consumes c join PersonById p on p.name = c.person;",
+		  "drop table Consumes;",
+		  "drop table Person;",
+		  "alter table PersonById rename to Person;",
+		  "alter table ConsumesById rename to Consumes;",
+		  "create index ConsumesConsumable on Consumes(consumable);" },
+	};
+	private static final int DATABASE_VERSION = BASE_VERSION + MIGRATIONS.length;
+
+	private DatabaseHelper mDbHelper;
+    private SQLiteDatabase mDb;
+    private Map<String, SQLiteStatement> statements = new HashMap<String, SQLiteStatement>();
+	private Context context;
+
+	public SQLiteTableStore(Context ctx) {
+		context = ctx;
+
+		open();
+	}
+
+	public SQLiteTableStore open() throws SQLException {
+    	mDbHelper = new DatabaseHelper(context);
+    	mDb = mDbHelper.getWritableDatabase();
+    	return this;
+    }
+
+    /**
+     * Closes the database, and with it every compiled statement. The store
+     * may not be used afterwards.
+     */
+    public void close() {
+    	statements.clear();
+    	mDbHelper.close();
+    }
+
+    private static class DatabaseHelper extends SQLiteOpenHelper {
+
+        DatabaseHelper(Context context) {
+            super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+        	Log.d("DB", "Criando bancos");
+            db.execSQL(DATABASE_CREATE_PERSON);
+            db.execSQL(DATABASE_CREATE_CONSUMABLE);
+            db.execSQL(DATABASE_CREATE_CONSUMES);
+            migrate(db, BASE_VERSION, DATABASE_VERSION);
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        	if (oldVersion < BASE_VERSION) {
+        		// No migrations exist for schemas this old, start over
+        		Log.w("DB", "Recriando bancos da versão " + oldVersion);
+        		db.execSQL("DROP TABLE IF EXISTS Consumes");
+        		db.execSQL("DROP TABLE IF EXISTS Consumable");
+        		db.execSQL("DROP TABLE IF EXISTS Person");
+        		onCreate(db);
+        		return;
+        	}
+        	migrate(db, oldVersion, newVersion);
+        }
+
+        /**
+         * Applies, in order, every migration after fromVersion up to and
+         * including toVersion. SQLiteOpenHelper already runs this inside a
+         * transaction, so a failing step leaves the database untouched.
+         */
+        private void migrate(SQLiteDatabase db, int fromVersion, int toVersion) {
+        	for (int version = fromVersion + 1; version <= toVersion; version++) {
+        		Log.d("DB", "Migrando bancos para a versão " + version);
+        		for (String statement : MIGRATIONS[version - BASE_VERSION - 1]) {
+        			db.execSQL(statement);
+        		}
+        	}
+        }
+    }
+
+    /**
+     * Returns the compiled form of sql, compiling it on first use. Statements
+     * are only ever executed from the writer thread, one at a time.
+     */
+    private SQLiteStatement compile(String sql) {
+    	SQLiteStatement statement = statements.get(sql);
+    	if (statement == null) {
+    		statement = mDb.compileStatement(sql);
+    		statements.put(sql, statement);
+    	}
+    	return statement;
+    }
+
+    @Override
+	public void runInTransaction(Runnable work) {
+		mDb.beginTransaction();
+		try {
+			work.run();
+			mDb.setTransactionSuccessful();
+		} finally {
+			mDb.endTransaction();
+		}
+	}
+
+    @Override
+    public void createPerson(int id, String name)
+    {
+    	SQLiteStatement insert = compile(INSERT_PERSON);
+    	insert.bindLong(1, id);
+    	insert.bindString(2, name);
+
+    	insert.executeInsert();
+    }
+
+    @Override
+    public void updatePersonName(int id, String name) {
+    	SQLiteStatement update = compile(UPDATE_PERSON_NAME);
+    	update.bindString(1, name);
+    	update.bindLong(2, id);
+    	update.execute();
+    }
+
+    @Override
+    public List<Person> fetchPersons()
+    {
+    	List<Person> persons = new ArrayList<Person>();
+
+    	Cursor c = mDb.query(PERSON_TABLE, new String [] {"id", "name"},
+    			null, null, null, null, null);
+
+    	c.moveToFirst();
+    	int size = c.getCount();
+    	for(int i = 0; i < size; i++, c.moveToNext()){
+    		int fetchedId = c.getInt(c.getColumnIndex("id"));
+    		String fetchedName = c.getString(c.getColumnIndex("name"));
+    		persons.add(new Person(fetchedId, fetchedName));
+    	}
+    	c.close();
+
+    	return persons;
+    }
+
+    @Override
+    public void deletePerson(int id){
+    	SQLiteStatement delete = compile(DELETE_PERSON);
+    	delete.bindLong(1, id);
+    	delete.execute();
+    }
+
+    @Override
+    public void createConsumable(int id, String name, int price, int quantity) throws SQLException {
+    	SQLiteStatement insert = compile(INSERT_CONSUMABLE);
+    	insert.bindLong(1, id);
+    	insert.bindString(2, name);
+    	insert.bindLong(3, price);
+    	insert.bindLong(4, quantity);
+
+    	long rowId = insert.executeInsert();
+
+    	if(rowId == -1)
+    		throw new SQLException("Não foi possível inserir consumable");
+    }
+
+    @Override
+    public void createRelation(int person, int consumable) {
+    	SQLiteStatement insert = compile(INSERT_RELATION);
+    	insert.bindLong(1, person);
+    	insert.bindLong(2, consumable);
+
+    	insert.executeInsert();
+    }
+
+    @Override
+    public void deleteRelation(int person, int consumable) {
+    	SQLiteStatement delete = compile(DELETE_RELATION);
+    	delete.bindLong(1, person);
+    	delete.bindLong(2, consumable);
+    	delete.execute();
+    }
+
+    @Override
+    public void createPersonRelations(int person) {
+    	SQLiteStatement insert = compile(INSERT_PERSON_RELATIONS);
+    	insert.bindLong(1, person);
+    	insert.execute();
+    }
+
+    @Override
+    public void createConsumableRelations(int consumable) {
+    	SQLiteStatement insert = compile(INSERT_CONSUMABLE_RELATIONS);
+    	insert.bindLong(1, consumable);
+    	insert.execute();
+    }
+
+    @Override
+    public void deletePersonRelations(int person) {
+    	SQLiteStatement delete = compile(DELETE_PERSON_RELATIONS);
+    	delete.bindLong(1, person);
+    	delete.execute();
+    }
+
+    @Override
+    public void deleteConsumableRelations(int consumable) {
+    	SQLiteStatement delete = compile(DELETE_CONSUMABLE_RELATIONS);
+    	delete.bindLong(1, consumable);
+    	delete.execute();
+    }
+
+    @Override
+    public void createPersonRelations(int person, int[] consumables, int count) {
+    	executeForIds(INSERT_SOME_PERSON_RELATIONS, person, consumables, count);
+    }
+
+    @Override
+    public void createConsumableRelations(int consumable, int[] persons, int count) {
+    	executeForIds(INSERT_SOME_CONSUMABLE_RELATIONS, consumable, persons, count);
+    }
+
+    @Override
+    public void deletePersonRelations(int person, int[] consumables, int count) {
+    	executeForIds(DELETE_SOME_PERSON_RELATIONS, person, consumables, count);
+    }
+
+    @Override
+    public void deleteConsumableRelations(int consumable, int[] persons, int count) {
+    	executeForIds(DELETE_SOME_CONSUMABLE_RELATIONS, consumable, persons, count);
+    }
+
+    /**
+     * Runs sql, which binds id and ends in "in ", once per MAX_IDS of the
+     * first count ids. Only the statement for a full chunk is kept compiled,
+     * the one for the remainder is closed once run.
+     */
+    private void executeForIds(String sql, int id, int[] ids, int count) {
+    	for (int start = 0; start < count; start += MAX_IDS) {
+    		int size = Math.min(MAX_IDS, count - start);
+    		StringBuilder in = new StringBuilder(sql).append('(');
+    		for (int i = 0; i < size; i++) {
+    			in.append((i == 0) ? "?" : ",?");
+    		}
+    		in.append(')');
+
+    		boolean full = (size == MAX_IDS);
+    		SQLiteStatement statement = full ? compile(in.toString()) : mDb.compileStatement(in.toString());
+    		try {
+    			statement.bindLong(1, id);
+    			for (int i = 0; i < size; i++) {
+    				statement.bindLong(i + 2, ids[start + i]);
+    			}
+    			statement.execute();
+    		} finally {
+    			if (!full)
+    				statement.close();
+    		}
+    	}
+    }
+
+    @Override
+    public void deleteConsumable(int id) {
+    	SQLiteStatement delete = compile(DELETE_CONSUMABLE);
+    	delete.bindLong(1, id);
+    	delete.execute();
+    }
+
+    @Override
+    public List<Consumable> fetchConsumables(){
+    	List <Consumable> consumables = new ArrayList<Consumable>();
+
+    	Cursor c = mDb.query(CONSUMABLE_TABLE, new String[] {"id", "name", "price", "quantity"},
+    			null, null, null, null, null);
+    	c.moveToFirst();
+    	int size = c.getCount();
+    	for (int i = 0; i < size; i++, c.moveToNext()){
+    		int id, price, quantity;
+    		String name;
+    		id = c.getInt(c.getColumnIndex("id"));
+    		name = c.getString(c.getColumnIndex("name"));
+    		price = c.getInt(c.getColumnIndex("price"));
+    		quantity = c.getInt(c.getColumnIndex("quantity"));
+
+    		consumables.add(new Consumable(name, price, quantity, id));
+    	}
+    	c.close();
+
+    	return consumables;
+    }
+
+    @Override
+    public void fetchRelations(RelationHandler handler) {
+
+    	Cursor c = mDb.query(CONSUMES_TABLE, new String [] {"person", "consumable"},
+    			null, null, null, null, null);
+
+    	int personColumn = c.getColumnIndex("person");
+    	int consumableColumn = c.getColumnIndex("consumable");
+
+    	c.moveToFirst();
+    	int size = c.getCount();
+    	for(int i = 0; i < size; i++, c.moveToNext()){
+    		handler.onRelation(c.getInt(personColumn), c.getInt(consumableColumn));
+    	}
+    	c.close();
+	}
+
+    @Override
+	public void clear() {
+		mDb.delete(CONSUMES_TABLE, null, null);
+		mDb.delete(PERSON_TABLE, null, null);
+		mDb.delete(CONSUMABLE_TABLE, null, null);
+	}
+}
@@ -0,0 +1,189 @@
+package table.organizer.model;
+
+import java.util.BitSet;
+
+/**
+ * An exact split of the table, as computed by TableManager.settle(). Unlike
+ * getPersonalBill(Person), which rounds every share up and truncates every
+ * tip, the shares here add up to the price of what was consumed and the
+ * tips add up to the table's tip, to the cent.
+ *
+ * Each consumable's total price is divided evenly among its sharers and the
+ * cents left over go one each to some of them, starting at a position that
+ * rotates with the consumable's slot so the same person does not always
+ * pay them. The tip is computed on the table's total, rounded down like
+ * TableManager.getTotalBillWithTip(), so getTotal() matches it. The part of
+ * the tip on what was consumed is divided in proportion to the shares by
+ * largest remainder; the rest, on the consumables nobody shares, is kept
+ * apart like their price. It is a copy: later changes to the table do not
+ * show up in it.
+ */
+public final class Settlement {
+	private final Person[] persons;
+	private final int[] shares;
+	private final int[] tips;
+	private final int unassigned;
+	private final int unassignedTip;
+	private final int tip;
+	private final int total;
+
+	private Settlement(Person[] persons, int[] shares, int[] tips, int unassigned, int unassignedTip,
+			int tip, int total) {
+		this.persons = persons;
+		this.shares = shares;
+		this.tips = tips;
+		this.unassigned = unassigned;
+		this.unassignedTip = unassignedTip;
+		this.tip = tip;
+		this.total = total;
+	}
+
+	/**
+	 * Settles the table in one pass over its consumables and two over its
+	 * persons.
+	 */
+	static Settlement compute(RelationMatrix relations, int tipPercent) {
+		ConsumableColumns columns = relations.columns();
+		int[] shareCounts = columns.shareCounts;
+		int slots = columns.getSlots();
+		int[] shares = new int[relations.getPersonSlots()];
+		int unassigned = 0;
+
+		for (int c = 0; c < slots; c++) {
+			int price = columns.totalPrice(c);
+			int sharers = shareCounts[c];
+			if (price == 0)
+				continue;
+			if (sharers == 0) {
+				unassigned += price;
+				continue;
+			}
+
+			int base = price / sharers;
+			int leftover = price % sharers;
+			int first = c % sharers;
+			BitSet persons = relations.sharersAt(c);
+			int position = 0;
+			for (int p = persons.nextSetBit(0); p >= 0; p = persons.nextSetBit(p + 1)) {
+				shares[p] += base;
+				if ((position - first + sharers) % sharers < leftover)
+					shares[p]++;
+				position++;
+			}
+		}
+
+		long assigned = 0;
+		for (int share : shares) {
+			assigned += share;
+		}
+		long table = assigned + unassigned;
+		int tip = (int) (table * tipPercent / 100);
+		int assignedTip = (int) (assigned * tipPercent / 100);
+		int[] tips = splitTip(shares, tipPercent, assignedTip);
+
+		return new Settlement(relations.personsBySlot(), shares, tips, unassigned, tip - assignedTip, tip,
+				(int) table + tip);
+	}
+
+	/**
+	 * Gives each person tipPercent of their share rounded down, then hands
+	 * the cents still missing from tip to the largest remainders, lowest slot
+	 * first among equals.
+	 */
+	private static int[] splitTip(int[] shares, int tipPercent, int tip) {
+		int[] tips = new int[shares.length];
+		int[] remainders = new int[shares.length];
+		int[] byRemainder = new int[100];
+		int missing = tip;
+
+		for (int p = 0; p < shares.length; p++) {
+			long exact = (long) shares[p] * tipPercent;
+			tips[p] = (int) (exact / 100);
+			remainders[p] = (int) (exact % 100);
+			byRemainder[remainders[p]]++;
+			missing -= tips[p];
+		}
+		if (missing <= 0)
+			return tips;
+
+		// Every remainder above cutoff gets a cent, and so do the first
+		// atCutoff persons whose remainder is exactly cutoff
+		int cutoff = 99;
+		while (cutoff > 0 && byRemainder[cutoff] < missing) {
+			missing -= byRemainder[cutoff];
+			cutoff--;
+		}
+		int atCutoff = missing;
+		for (int p = 0; p < shares.length; p++) {
+			if (remainders[p] > cutoff) {
+				tips[p]++;
+			} else if (remainders[p] == cutoff && cutoff > 0 && atCutoff > 0) {
+				tips[p]++;
+				atCutoff--;
+			}
+		}
+		return tips;
+	}
+
+	/**
+	 * @return what person consumed in cents, without tip
+	 * @throws IllegalArgumentException if person was not at the table when
+	 *         it was settled
+	 */
+	public int getShare(Person person) {
+		return shares[slotOf(person)];
+	}
+
+	/**
+	 * @return person's part of the tip in cents
+	 */
+	public int getTipShare(Person person) {
+		return tips[slotOf(person)];
+	}
+
+	/**
+	 * @return bill to be paid by person in cents, tip included
+	 */
+	public int getBill(Person person) {
+		int slot = slotOf(person);
+		return shares[slot] + tips[slot];
+	}
+
+	/**
+	 * @return price in cents of the consumables nobody shares, which is in
+	 *         no one's bill
+	 */
+	public int getUnassigned() {
+		return unassigned;
+	}
+
+	/**
+	 * @return the part of the tip in cents on the consumables nobody shares,
+	 *         which is in no one's tip share
+	 */
+	public int getUnassignedTip() {
+		return unassignedTip;
+	}
+
+	/**
+	 * @return the table's tip in cents, on everything consumed whether
+	 *         shared or not
+	 */
+	public int getTip() {
+		return tip;
+	}
+
+	/**
+	 * @return the whole bill in cents, tip and unassigned consumables included
+	 */
+	public int getTotal() {
+		return total;
+	}
+
+	private int slotOf(Person person) {
+		int slot = Bills.indexOf(persons, person);
+		if (slot < 0)
+			throw new IllegalArgumentException("Pessoa não está na mesa: " + person.getName());
+		return slot;
+	}
+}
@@ -0,0 +1,155 @@
+package table.organizer.model;
+
+import java.util.AbstractList;
+
+/**
+ * Immutable list stored as a tree of WIDTH-wide nodes, the items in the
+ * leaves. An Editor makes a new list from an old one by copying only the
+ * nodes on the way to the items it changes, so the two share every other
+ * node and changing one item copies a handful of small arrays whatever the
+ * size. TableSnapshot publishes its lists this way.
+ */
+final class SharedList<T> extends AbstractList<T> {
+	private static final int SHIFT = 5;
+	private static final int WIDTH = 1 << SHIFT;
+	private static final int MASK = WIDTH - 1;
+	/** Every node has one slot more, naming the editor that made it. */
+	private static final int OWNER = WIDTH;
+
+	private static final SharedList<Object> EMPTY = new SharedList<Object>(new Object[WIDTH + 1], 0, 0);
+
+	private final Object[] root;
+	private final int shift; // of the root's level, 0 when it is a leaf
+	private final int size;
+
+	private SharedList(Object[] root, int shift, int size) {
+		this.root = root;
+		this.shift = shift;
+		this.size = size;
+	}
+
+	@SuppressWarnings("unchecked")
+	static <T> SharedList<T> empty() {
+		return (SharedList<T>) EMPTY;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public T get(int location) {
+		if (location < 0 || location >= size)
+			throw new IndexOutOfBoundsException();
+		return (T) leafOf(root, shift, location)[location & MASK];
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	private static Object[] leafOf(Object[] root, int shift, int location) {
+		Object[] node = root;
+		for (int level = shift; level > 0; level -= SHIFT)
+			node = (Object[]) node[(location >>> level) & MASK];
+		return node;
+	}
+
+	/**
+	 * Changes a copy of a list. A node is copied the first time something
+	 * under it changes and reused afterwards; setting an item to the one
+	 * already there copies nothing. An editor builds a single list.
+	 */
+	static class Editor<T> {
+		private final SharedList<T> base;
+		private final Object edit = new Object();
+		private Object[] root;
+		private int shift;
+		private int size;
+
+		Editor(SharedList<T> base) {
+			this.base = base;
+			this.root = base.root;
+			this.shift = base.shift;
+			this.size = base.size;
+		}
+
+		void set(int location, T item) {
+			if (location == size) {
+				add(item);
+				return;
+			}
+			if (location < 0 || location > size)
+				throw new IndexOutOfBoundsException();
+			if (leafOf(root, shift, location)[location & MASK] == item)
+				return;
+			editableLeaf(location)[location & MASK] = item;
+		}
+
+		void add(T item) {
+			if (size == 1 << (shift + SHIFT)) {
+				Object[] grown = node();
+				grown[0] = root;
+				root = grown;
+				shift += SHIFT;
+			}
+			editableLeaf(size)[size & MASK] = item;
+			size++;
+		}
+
+		/**
+		 * Drops the items from size on.
+		 */
+		void truncate(int size) {
+			if (size == 0) {
+				root = node();
+				shift = 0;
+			}
+			else {
+				// Clear them so that they can be collected
+				for (int i = size; i < this.size; i++)
+					editableLeaf(i)[i & MASK] = null;
+			}
+			if (size < this.size)
+				this.size = size;
+		}
+
+		/**
+		 * @return the edited list, which is base itself if nothing changed
+		 */
+		SharedList<T> build() {
+			if (root == base.root && size == base.size)
+				return base;
+			return new SharedList<T>(root, shift, size);
+		}
+
+		/**
+		 * @return the leaf holding location, copying it and the nodes above
+		 *         it unless this editor made them
+		 */
+		private Object[] editableLeaf(int location) {
+			root = editable(root);
+			Object[] node = root;
+			for (int level = shift; level > 0; level -= SHIFT) {
+				int index = (location >>> level) & MASK;
+				Object[] child = (Object[]) node[index];
+				child = (child == null) ? node() : editable(child);
+				node[index] = child;
+				node = child;
+			}
+			return node;
+		}
+
+		private Object[] editable(Object[] node) {
+			if (node[OWNER] == edit)
+				return node;
+			Object[] copy = node.clone();
+			copy[OWNER] = edit;
+			return copy;
+		}
+
+		private Object[] node() {
+			Object[] node = new Object[WIDTH + 1];
+			node[OWNER] = edit;
+			return node;
+		}
+	}
+}
@@ -0,0 +1,182 @@
+package table.organizer.model;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import table.organizer.model.TableSnapshot.ConsumableState;
+import table.organizer.model.TableSnapshot.PersonState;
+
+/**
+ * Makes each TableSnapshot out of the one before and what TableManager
+ * marked as changed since: the persons and consumables whose state changed
+ * or that took a new position, by relation slot. A removal moves only the
+ * last entry into its place, so only the marked entries are built again,
+ * and only the list nodes above them are copied; publishing after a change
+ * costs about as much as the change did.
+ */
+class SnapshotPublisher {
+	private final RelationMatrix relations;
+	private final BitSet changedPersons = new BitSet();
+	private final BitSet changedConsumables = new BitSet();
+	private boolean everythingChanged;
+
+	SnapshotPublisher(RelationMatrix relations) {
+		this.relations = relations;
+	}
+
+	/** The state of person changed, or it was added or moved. */
+	void personChanged(Person person) {
+		changedPersons.set(person.getSlot());
+	}
+
+	/** The state of consumable changed, or it was added or moved. */
+	void consumableChanged(Consumable consumable) {
+		changedConsumables.set(consumable.getSlot());
+	}
+
+	/** The bill of everyone sharing consumable changed. */
+	void sharersChanged(Consumable consumable) {
+		changedPersons.or(relations.sharersOf(consumable));
+	}
+
+	/** The table was loaded or cleared; nothing can be shared. */
+	void everythingChanged() {
+		everythingChanged = true;
+	}
+
+	/**
+	 * @return the snapshot following previous, or previous itself if
+	 *         nothing changed
+	 */
+	TableSnapshot publish(TableSnapshot previous, List<Person> persons, List<Consumable> consumables,
+			int tip, int totalBill) {
+		SharedList<PersonState> personStates = publishPersons(previous.personStates(), persons);
+		SharedList<ConsumableState> consumableStates = publishConsumables(previous.consumableStates(), consumables);
+
+		changedPersons.clear();
+		changedConsumables.clear();
+		everythingChanged = false;
+
+		if (personStates == previous.personStates() && consumableStates == previous.consumableStates()
+				&& tip == previous.getTip() && totalBill == previous.getTotalBill())
+			return previous;
+		return new TableSnapshot(previous.getVersion() + 1, personStates, consumableStates, tip, totalBill);
+	}
+
+	private SharedList<PersonState> publishPersons(SharedList<PersonState> previous, List<Person> persons) {
+		if (!everythingChanged && changedPersons.isEmpty() && persons.size() == previous.size())
+			return previous;
+
+		SharedList.Editor<PersonState> editor = new SharedList.Editor<PersonState>(previous);
+		int kept = everythingChanged ? 0 : Math.min(previous.size(), persons.size());
+		editor.truncate(kept);
+		for (int i = kept; i < persons.size(); i++) {
+			editor.add(personState(persons.get(i), null));
+		}
+		if (everythingChanged)
+			return editor.build();
+
+		// Whatever took one of the kept positions was marked as changed
+		for (int p = changedPersons.nextSetBit(0); p >= 0; p = changedPersons.nextSetBit(p + 1)) {
+			Person person = relations.personAt(p);
+			if (person == null || person.getPosition() >= kept)
+				continue;
+			int position = person.getPosition();
+			editor.set(position, personState(person, personAt(previous, position, person.getId())));
+		}
+		return editor.build();
+	}
+
+	private SharedList<ConsumableState> publishConsumables(SharedList<ConsumableState> previous,
+			List<Consumable> consumables) {
+		if (!everythingChanged && changedConsumables.isEmpty() && consumables.size() == previous.size())
+			return previous;
+
+		SharedList.Editor<ConsumableState> editor = new SharedList.Editor<ConsumableState>(previous);
+		int kept = everythingChanged ? 0 : Math.min(previous.size(), consumables.size());
+		editor.truncate(kept);
+		for (int i = kept; i < consumables.size(); i++) {
+			editor.add(consumableState(consumables.get(i), null));
+		}
+		if (everythingChanged)
+			return editor.build();
+
+		for (int c = changedConsumables.nextSetBit(0); c >= 0; c = changedConsumables.nextSetBit(c + 1)) {
+			Consumable consumable = relations.consumableAt(c);
+			if (consumable == null || consumable.getPosition() >= kept)
+				continue;
+			int position = consumable.getPosition();
+			editor.set(position, consumableState(consumable, consumableAt(previous, position, consumable.getId())));
+		}
+		return editor.build();
+	}
+
+	/**
+	 * @return the state of person, which is old itself if nothing in it
+	 *         changed
+	 */
+	private PersonState personState(Person person, PersonState old) {
+		int version = relations.personVersion(person);
+		int[] consumableIds;
+		if (old != null && old.relationsVersion == version) {
+			if (old.getPersonalBill() == person.getPersonalBill() && old.getName().equals(person.getName()))
+				return old;
+			consumableIds = old.consumableIds();
+		}
+		else {
+			BitSet items = relations.itemsOf(person);
+			consumableIds = new int[items.cardinality()];
+			int i = 0;
+			for (int c = items.nextSetBit(0); c >= 0; c = items.nextSetBit(c + 1)) {
+				consumableIds[i++] = relations.consumableAt(c).getId();
+			}
+			Arrays.sort(consumableIds);
+		}
+		return new PersonState(person.getId(), person.getName(), person.getPersonalBill(), consumableIds, version);
+	}
+
+	/**
+	 * @return the state of consumable, which is old itself if nothing in it
+	 *         changed
+	 */
+	private ConsumableState consumableState(Consumable consumable, ConsumableState old) {
+		int version = relations.consumableVersion(consumable);
+		int[] personIds;
+		if (old != null && old.relationsVersion == version) {
+			if (old.getPrice() == consumable.getPrice() && old.getQuantity() == consumable.getQuantity()
+					&& old.getName().equals(consumable.getName()))
+				return old;
+			personIds = old.personIds();
+		}
+		else {
+			BitSet sharers = relations.sharersOf(consumable);
+			personIds = new int[relations.shareCount(consumable)];
+			int i = 0;
+			for (int p = sharers.nextSetBit(0); p >= 0; p = sharers.nextSetBit(p + 1)) {
+				personIds[i++] = relations.personAt(p).getId();
+			}
+			Arrays.sort(personIds);
+		}
+		return new ConsumableState(consumable.getId(), consumable.getName(), consumable.getPrice(),
+				consumable.getQuantity(), consumable.getPricePerPerson(), personIds, version);
+	}
+
+	/**
+	 * @return the entry of previous at position if it is the one for id,
+	 *         or null
+	 */
+	private static PersonState personAt(SharedList<PersonState> previous, int position, int id) {
+		if (position >= previous.size())
+			return null;
+		PersonState state = previous.get(position);
+		return (state.getId() == id) ? state : null;
+	}
+
+	private static ConsumableState consumableAt(SharedList<ConsumableState> previous, int position, int id) {
+		if (position >= previous.size())
+			return null;
+		ConsumableState state = previous.get(position);
+		return (state.getId() == id) ? state : null;
+	}
+}
@@ -1,97 +1,399 @@
 package table.organizer.model;
 
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import table.organizer.exceptions.DuplicatePersonException;
-import android.content.ContentValues;
+import table.organizer.model.TableSnapshot.ConsumableState;
+import table.organizer.model.TableSnapshot.PersonState;
 import android.content.Context;
-import android.database.Cursor;
-import android.database.SQLException;
-import android.database.sqlite.SQLiteDatabase;
-import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
+/**
+ * The table: persons, consumables, who shares what and the resulting bills,
+ * kept in memory and written back to a TableStore in the background.
+ * 
+ * It may be used from several threads. Every change, and every
+ * runInTransaction call as a whole, holds a write lock, while lookups,
+ * totals and bills share a read lock, so readers run in parallel with each
+ * other but never see a change half made. The lists returned by
+ * getPersons() and getConsumables(), and what Person and Consumable return
+ * themselves, are not guarded; other threads should read getSnapshot()
+ * instead, which needs no lock at all.
+ */
 public class TableManager {
 	private List<Person> persons;
 	private List<Consumable> consumables;
+	private Map<String, Person> personsByName;
+	private Map<Integer, Person> personsById;
+	private Map<Integer, Consumable> consumablesById;
+	private final RelationMatrix relations = new RelationMatrix();
+	private final NameIndex<Person> personNames = new NameIndex<Person>();
+	private final NameIndex<Consumable> consumableNames = new NameIndex<Consumable>();
 	
-	public final String POSITION = "POSITION";
+	/** Intent extras naming the person or consumable a screen shows. */
+	public static final String PERSON_ID = "PERSON_ID";
+	public static final String CONSUMABLE_ID = "CONSUMABLE_ID";
 	
-	private final String PERSON_TABLE = "Person";
-	private final String CONSUMABLE_TABLE = "Consumable";
-	private final String CONSUMES_TABLE = "Consumes";
-	
-	private static final String DATABASE_NAME = "tableorganizer";
-	private static final String DATABASE_CREATE_PERSON = "create table Person(name text PRIMARY KEY NOT NULL UNIQUE);";
-	private static final String DATABASE_CREATE_CONSUMABLE = "create table Consumable(id integer PRIMARY KEY, name text NOT NULL, price integer NOT NULL, quantity integer NOT NULL);";
-	private static final String DATABASE_CREATE_CONSUMES = "create table Consumes(person text, consumable integer, FOREIGN KEY(person) REFERENCES Person(name), FOREIGN KEY(consumable) REFERENCES Consumable(id), UNIQUE(person, consumable)); ";
-
-	private static final int DATABASE_VERSION = 3;
 	public static final int DEFAULT_TIP = 0;
 	
-	private DatabaseHelper mDbHelper;
-    private SQLiteDatabase mDb;
-	private Context context;
+	private TableStore store;
 	private static TableManager instance;
+	private static Future<TableManager> loading;
+	private static List<OnTableLoadedListener> loadListeners = new ArrayList<OnTableLoadedListener>();
+	/** Taken from loadListeners, but not yet told how the load went. */
+	private static List<OnTableLoadedListener> deliveringListeners = new ArrayList<OnTableLoadedListener>();
 	private int tip;
+	private int nextPersonId;
+	private int nextConsumableId;
+	private int totalBill;
+	private WriteBehindQueue writeQueue;
+	private final MoneyFormatter money = new MoneyFormatter(Locale.getDefault());
+	private final List<OnTableChangedListener> changeListeners = new CopyOnWriteArrayList<OnTableChangedListener>();
+	private final SnapshotPublisher publisher = new SnapshotPublisher(relations);
+	private volatile TableSnapshot snapshot = TableSnapshot.EMPTY;
+	private int transactionDepth;
+	/** The table as the outermost runInTransaction call found it. */
+	private TableSnapshot transactionStart;
+	/** Removed since transactionStart, to be put back if the work throws. */
+	private List<Person> removedPersons;
+	private List<Consumable> removedConsumables;
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	private final Lock readLock = lock.readLock();
+	private final Lock writeLock = lock.writeLock();
 	
-    private TableManager(Context ctx){		
-
-    	context = ctx;
-    	
-		open();
+	/**
+	 * Loads the whole table from store. Every later change is written back
+	 * to it on a background writer.
+	 */
+	public TableManager(TableStore store) {
+		this.store = store;
 		
-		persons = fetchPersons();
-		consumables = fetchConsumables();
+		persons = store.fetchPersons();
+		consumables = store.fetchConsumables();
+		buildIndexes();
 		fetchRelations();
+		computeTotals();
 		tip = DEFAULT_TIP;
+		writeQueue = new WriteBehindQueue(store);
+		
+		publisher.everythingChanged();
+		publish();
+	}
+	
+    private TableManager(Context ctx){		
+    	this(new SQLiteTableStore(ctx));
     }
     
-	public TableManager open() throws SQLException {
-    	mDbHelper = new DatabaseHelper(context);
-    	mDb = mDbHelper.getWritableDatabase();
-    	return this;
-    }
-    
-    private static class DatabaseHelper extends SQLiteOpenHelper {
-
-        DatabaseHelper(Context context) {
-            super(context, DATABASE_NAME, null, DATABASE_VERSION);
-        }
-
-        @Override
-        public void onCreate(SQLiteDatabase db) {
-        	Log.d("DB", "Criando bancos");
-            db.execSQL(DATABASE_CREATE_PERSON);
-            db.execSQL(DATABASE_CREATE_CONSUMABLE);
-            db.execSQL(DATABASE_CREATE_CONSUMES);
-        }
-
-        @Override
-        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-//            Log.w(TAG, "Upgrading database from version " + oldVersion + " to "
-//                    + newVersion + ", which will destroy all old data");
-            db.execSQL("DROP TABLE IF EXISTS Person");
-            onCreate(db);
-        }
-    }
-    
-	public synchronized static TableManager getInstance(Context context) {
-		if (instance == null) {
-			instance = new TableManager(context);
+	private void buildIndexes() {
+		personsByName = new HashMap<String, Person>(persons.size() * 2);
+		personsById = new HashMap<Integer, Person>(persons.size() * 2);
+		nextPersonId = 1;
+		for (int i = 0; i < persons.size(); i++) {
+			Person person = persons.get(i);
+			person.setPosition(i);
+			personsByName.put(person.getName(), person);
+			personsById.put(person.getId(), person);
+			personNames.add(person.getName(), person);
+			relations.add(person);
+			if (person.getId() >= nextPersonId)
+				nextPersonId = person.getId() + 1;
+		}
+		
+		consumablesById = new HashMap<Integer, Consumable>(consumables.size() * 2);
+		nextConsumableId = 1;
+		for (int i = 0; i < consumables.size(); i++) {
+			Consumable consumable = consumables.get(i);
+			consumable.setPosition(i);
+			consumablesById.put(consumable.getId(), consumable);
+			consumableNames.add(consumable.getName(), consumable);
+			relations.add(consumable);
+			if (consumable.getId() >= nextConsumableId)
+				nextConsumableId = consumable.getId() + 1;
 		}
-		return instance;
 	}
 	
-	public String printPrice (int cents) {
-		String cent;
-		if (cents%100 < 10)
-			cent = "0" + cents%100;
-		else
-			cent = "" + cents%100;
-		String price = "$" + cents/100 + "." + cent;
-		return price;
+	public interface OnTableLoadedListener {
+		void onTableLoaded(TableManager table);
+		
+		/**
+		 * Called instead of onTableLoaded when the table could not be
+		 * loaded. The next request for the table tries again.
+		 */
+		void onTableLoadFailed(RuntimeException e);
+	}
+	
+	/**
+	 * Told about every change to the table, right after it is made and on the
+	 * thread that made it, so that views can refresh only what changed. The
+	 * write lock is still held, so the listener sees the table as the change
+	 * left it but must not wait on another thread that uses the table.
+	 * Positions are those of getPerson(int) and getConsumable(int). Removing
+	 * moves the last person or consumable into the position removed.
+	 */
+	public interface OnTableChangedListener {
+		void onPersonAdded(Person person, int position);
+		
+		/** The bills of whoever shared something with the person changed too. */
+		void onPersonRemoved(int id, int position);
+		
+		void onPersonRenamed(Person person, int position);
+		
+		void onConsumableAdded(Consumable consumable, int position);
+		
+		/** @param sharers the persons whose bills went down */
+		void onConsumableRemoved(int id, int position, List<Person> sharers);
+		
+		/**
+		 * The bill of person and of every other sharer of consumable changed,
+		 * as did the consumable's price per person.
+		 */
+		void onAssignmentChanged(Person person, Consumable consumable, boolean assigned);
+		
+		/**
+		 * Several persons started or stopped sharing consumable at once, so
+		 * their bills and those of the other sharers changed.
+		 */
+		void onConsumableSharesChanged(Consumable consumable);
+		
+		/**
+		 * Person started or stopped sharing several consumables at once, so
+		 * their bill and those of the other sharers changed.
+		 */
+		void onPersonConsumablesChanged(Person person);
+		
+		void onTipChanged(int tip);
+		
+		void onTableCleared();
+		
+		/**
+		 * The work of a runInTransaction call threw, and every change it had
+		 * made, already reported to this listener, was undone.
+		 */
+		void onTableRolledBack();
+	}
+	
+	/**
+	 * An OnTableChangedListener that ignores every event, to extend when only
+	 * some of them matter.
+	 */
+	public static class SimpleOnTableChangedListener implements OnTableChangedListener {
+		public void onPersonAdded(Person person, int position) {}
+		public void onPersonRemoved(int id, int position) {}
+		public void onPersonRenamed(Person person, int position) {}
+		public void onConsumableAdded(Consumable consumable, int position) {}
+		public void onConsumableRemoved(int id, int position, List<Person> sharers) {}
+		public void onAssignmentChanged(Person person, Consumable consumable, boolean assigned) {}
+		public void onConsumableSharesChanged(Consumable consumable) {}
+		public void onPersonConsumablesChanged(Person person) {}
+		public void onTipChanged(int tip) {}
+		public void onTableCleared() {}
+		public void onTableRolledBack() {}
+	}
+	
+	/**
+	 * Told, on the background writer thread, when a change could not be
+	 * written to the store. The change stays in memory but will be missing
+	 * when the table is loaded again.
+	 */
+	public interface OnWriteFailedListener {
+		void onWriteFailed(RuntimeException e);
+	}
+	
+	public void addOnWriteFailedListener(OnWriteFailedListener listener) {
+		writeQueue.addOnWriteFailedListener(listener);
+	}
+	
+	public void removeOnWriteFailedListener(OnWriteFailedListener listener) {
+		writeQueue.removeOnWriteFailedListener(listener);
+	}
+	
+	public void addOnTableChangedListener(OnTableChangedListener listener) {
+		changeListeners.add(listener);
+	}
+	
+	public void removeOnTableChangedListener(OnTableChangedListener listener) {
+		changeListeners.remove(listener);
+	}
+	
+	/**
+	 * Returns the table as of the last change, or of the end of the last
+	 * runInTransaction call, as an immutable copy. It takes no lock, and
+	 * reading what it returns needs none while the table goes on changing.
+	 */
+	public TableSnapshot getSnapshot() {
+		return snapshot;
+	}
+	
+	/**
+	 * Publishes the snapshot of the table as it is now, unless inside
+	 * runInTransaction, which publishes once at the end.
+	 */
+	private void publish() {
+		if (transactionDepth == 0)
+			snapshot = publisher.publish(snapshot, persons, consumables, tip, totalBill);
+	}
+	
+	/**
+	 * Returns the table, loading it on the calling thread if needed. If an
+	 * asynchronous load is under way, waits for it instead.
+	 */
+	public static TableManager getInstance(Context context) {
+		Future<TableManager> pending;
+		synchronized (TableManager.class) {
+			if (instance != null)
+				return instance;
+			if (loading == null) {
+				instance = new TableManager(context);
+				return instance;
+			}
+			pending = loading;
+		}
+		return awaitLoading(pending);
+	}
+	
+	/**
+	 * Delivers the table to listener on the main thread. If the table is not
+	 * loaded yet, opening the database and fetching its contents happen on a
+	 * background thread, and listener is called once that is done. If it is
+	 * already loaded, listener is called right away. If loading fails,
+	 * listener is told through onTableLoadFailed instead.
+	 */
+	public static void getInstanceAsync(Context context, OnTableLoadedListener listener) {
+		TableManager loaded;
+		synchronized (TableManager.class) {
+			loaded = instance;
+			if (loaded == null) {
+				loadListeners.add(listener);
+				if (loading == null)
+					startLoading(context.getApplicationContext());
+			}
+		}
+		if (loaded != null)
+			listener.onTableLoaded(loaded);
+	}
+	
+	/**
+	 * Stops listener from being told about a load still under way, such as
+	 * when the activity that asked for the table is destroyed first. Call it
+	 * on the main thread; listener is then never called.
+	 */
+	public static void removeOnTableLoadedListener(OnTableLoadedListener listener) {
+		synchronized (TableManager.class) {
+			if (!loadListeners.remove(listener))
+				deliveringListeners.remove(listener);
+		}
+	}
+	
+	private static void startLoading(final Context context) {
+		final Handler mainThread = new Handler(Looper.getMainLooper());
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		
+		loading = executor.submit(new Callable<TableManager>() {
+			
+			@Override
+			public TableManager call() {
+				final TableManager table;
+				try {
+					table = new TableManager(context);
+				} catch (RuntimeException e) {
+					Log.e("DB", "Falha ao carregar a mesa", e);
+					
+					// Forget this attempt so that the next caller starts another
+					List<OnTableLoadedListener> listeners;
+					synchronized (TableManager.class) {
+						loading = null;
+						listeners = takeLoadListeners();
+					}
+					deliver(mainThread, listeners, null, e);
+					throw e;
+				}
+				
+				List<OnTableLoadedListener> listeners;
+				synchronized (TableManager.class) {
+					instance = table;
+					listeners = takeLoadListeners();
+				}
+				deliver(mainThread, listeners, table, null);
+				return table;
+			}
+		});
+		executor.shutdown();
+	}
+	
+	/**
+	 * Moves the listeners waiting for the current load to those about to be
+	 * told how it went. Called holding the class lock.
+	 */
+	private static List<OnTableLoadedListener> takeLoadListeners() {
+		List<OnTableLoadedListener> listeners = loadListeners;
+		loadListeners = new ArrayList<OnTableLoadedListener>();
+		deliveringListeners.addAll(listeners);
+		return listeners;
+	}
+	
+	/**
+	 * Tells listeners on the main thread that table was loaded, or that
+	 * loading failed with failure, skipping those removed in the meantime.
+	 */
+	private static void deliver(Handler mainThread, final List<OnTableLoadedListener> listeners,
+			final TableManager table, final RuntimeException failure) {
+		mainThread.post(new Runnable() {
+			
+			@Override
+			public void run() {
+				for (OnTableLoadedListener listener : listeners) {
+					synchronized (TableManager.class) {
+						if (!deliveringListeners.remove(listener))
+							continue;
+					}
+					if (table != null)
+						listener.onTableLoaded(table);
+					else
+						listener.onTableLoadFailed(failure);
+				}
+			}
+		});
+	}
+	
+	private static TableManager awaitLoading(Future<TableManager> pending) {
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					return pending.get();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				} catch (ExecutionException e) {
+					throw new IllegalStateException("Não foi possível carregar a mesa", e.getCause());
+				}
+			}
+		} finally {
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * @return the formatter for the prices shown to the user
+	 */
+	public MoneyFormatter getMoneyFormatter() {
+		return money;
 	}
 	
 	/**
@@ -99,254 +401,1012 @@ public class TableManager {
 	 * @return total bill price in cents
 	 */
 	public int getTotalBill(){
+		readLock.lock();
+		try {
+			return totalBill;
+		} finally {
+			readLock.unlock();
+		}
+	}
+	
+	/**
+	 * Recomputes the table total and every personal bill from scratch. The
+	 * mutators keep them up to date afterwards.
+	 */
+	private void computeTotals() {
+		for (Person person : persons) {
+			person.setPersonalBill(0);
+		}
 		
-		int price = 0;
+		ConsumableColumns columns = relations.columns();
+		totalBill = columns.totalBill();
 		
-		for(Consumable consumable : consumables){
-			price += consumable.getTotalPrice();
+		int slots = columns.getSlots();
+		int[] shareCounts = columns.shareCounts;
+		for (int c = 0; c < slots; c++) {
+			if (shareCounts[c] == 0)
+				continue;
+			int share = columns.pricePerPerson(c);
+			BitSet sharers = relations.sharersAt(c);
+			for (int p = sharers.nextSetBit(0); p >= 0; p = sharers.nextSetBit(p + 1)) {
+				relations.personAt(p).addToPersonalBill(share);
+			}
 		}
-		
-		return price;
 	}
 	
 	public int getTotalBillWithTip(){
-		return (int)(getTotalBill()*(100+tip))/100;
+		readLock.lock();
+		try {
+			return (int)(getTotalBill()*(100+tip))/100;
+		} finally {
+			readLock.unlock();
+		}
 	}
 	
-	public Person addPerson(String name) throws DuplicatePersonException {
+	public Person addPerson(final String name) throws DuplicatePersonException {
+		writeLock.lock();
+		try {
+			if(personsByName.containsKey(name))
+				throw new DuplicatePersonException("Person already exists");
+			
+			final int id = nextPersonId++;
+			Person newPerson = new Person(id, name);
+			
+			newPerson.setPosition(persons.size());
+			persons.add(newPerson);
+			relations.add(newPerson);
+			personsByName.put(name, newPerson);
+			personsById.put(id, newPerson);
+			personNames.add(name, newPerson);
+			publisher.personChanged(newPerson);
+			
+			writeQueue.enqueue(new Runnable() {
+				
+				@Override
+				public void run() {
+					store.createPerson(id, name);
+				}
+			});
+			publish();
+			
+			int position = persons.size() - 1;
+			for (OnTableChangedListener listener : changeListeners) {
+				listener.onPersonAdded(newPerson, position);
+			}
+			return newPerson;
+		} finally {
+			writeLock.unlock();
+		}
+	}
+	
+	public void renamePerson(final int id, final String name) throws DuplicatePersonException {
+		writeLock.lock();
+		try {
+			Person person = getPersonById(id);
+			if (person == null || person.getName().equals(name))
+				return;
+			if (personsByName.containsKey(name))
+				throw new DuplicatePersonException("Person already exists");
+			
+			personsByName.remove(person.getName());
+			personNames.remove(person.getName(), person);
+			person.setName(name);
+			personsByName.put(name, person);
+			personNames.add(name, person);
+			publisher.personChanged(person);
+			
+			writeQueue.enqueue(new Runnable() {
+				
+				@Override
+				public void run() {
+					store.updatePersonName(id, name);
+				}
+			});
+			publish();
+			
+			if (!changeListeners.isEmpty()) {
+				int position = person.getPosition();
+				for (OnTableChangedListener listener : changeListeners) {
+					listener.onPersonRenamed(person, position);
+				}
+			}
+		} finally {
+			writeLock.unlock();
+		}
+	}
+	
+	public boolean removePerson(final int id){
+		writeLock.lock();
+		try {
+			Person person = getPersonById(id);
+			if(person == null){
+				return false;
+			}
+			
+			writeQueue.enqueue(new Runnable() {
+				
+				@Override
+				public void run() {
+					store.deletePersonRelations(id);
+					store.deletePerson(id);
+				}
+			});
+			
+			BitSet items = relations.itemsOf(person);
+			for (int c = items.nextSetBit(0); c >= 0; c = items.nextSetBit(c + 1)) {
+				Consumable consumable = relations.consumableAt(c);
+				int oldShare = consumable.getPricePerPerson();
+				relations.unassign(person, consumable);
+				publisher.consumableChanged(consumable);
+				rebillSharers(consumable, oldShare);
+			}
+			int position = person.getPosition();
+			relations.remove(person);
+			if (transactionDepth > 0)
+				removedPersons.add(person);
 
-		if(createPerson(name) == -1)
-			throw new DuplicatePersonException("Person already exists");
-		
-		Person newPerson = new Person(name);
-		
-		persons.add(newPerson);
-		
-		return newPerson;
+			personsByName.remove(person.getName());
+			personsById.remove(id);
+			personNames.remove(person.getName(), person);
+			removePersonAt(position);
+			publish();
+			
+			for (OnTableChangedListener listener : changeListeners) {
+				listener.onPersonRemoved(id, position);
+			}
+			return true;
+		} finally {
+			writeLock.unlock();
+		}
 	}
 	
-	public boolean removePerson(String name){
-		Person person = getPersonByName(name);
-		if(person == null){
-			return false;
+	/**
+	 * Removes the person at position without shifting the ones after it:
+	 * the last person takes its place.
+	 */
+	private void removePersonAt(int position) {
+		Person last = persons.remove(persons.size() - 1);
+		if (position < persons.size()) {
+			persons.set(position, last);
+			last.setPosition(position);
+			publisher.personChanged(last);
+		}
+	}
+	
+	/**
+	 * Finds persons by the start of their name, ignoring case, without
+	 * looking at every person.
+	 * 
+	 * @return the matching persons sorted by name, copied so that it stays
+	 *         valid when the table changes
+	 */
+	public List<Person> findPersons(CharSequence prefix) {
+		readLock.lock();
+		try {
+			return new ArrayList<Person>(personNames.startingWith(prefix));
+		} finally {
+			readLock.unlock();
 		}
-		for (Consumable consumable : person.getConsumables()) {
-			consumable.removePerson(person);
+	}
+	
+	/**
+	 * @return the person with id, or null if there is none
+	 */
+	public Person getPersonById(int id) {
+		readLock.lock();
+		try {
+			return personsById.get(id);
+		} finally {
+			readLock.unlock();
 		}
-		
-		mDb.delete(CONSUMES_TABLE, "person=?", new String[] {name});
-		deletePerson(name);
+	}
 
-		return persons.remove(new Person(name));
+	public Consumable addConsumable(final String name, final int price, final int quantity) throws Exception {
+		writeLock.lock();
+		try {
+			final int id = nextConsumableId++;
+			
+			Consumable newConsumable = new Consumable(name, price, quantity, id);
+			
+			newConsumable.setPosition(consumables.size());
+			consumables.add(newConsumable);
+			relations.add(newConsumable);
+			consumablesById.put(id, newConsumable);
+			consumableNames.add(name, newConsumable);
+			totalBill += newConsumable.getTotalPrice();
+			publisher.consumableChanged(newConsumable);
+			
+			writeQueue.enqueue(new Runnable() {
+				
+				@Override
+				public void run() {
+					store.createConsumable(id, name, price, quantity);
+				}
+			});
+			publish();
+			
+			int position = consumables.size() - 1;
+			for (OnTableChangedListener listener : changeListeners) {
+				listener.onConsumableAdded(newConsumable, position);
+			}
+			return newConsumable;
+		} finally {
+			writeLock.unlock();
+		}
 	}
 	
-	private Person getPersonByName(String name) {
-		for (Person person : persons) {
-			if(person.getName().equals(name)){
-				return person;
+	public boolean removeConsumable(final int id){
+		writeLock.lock();
+		try {
+			Consumable consumable = getConsumableById(id);
+			if (consumable == null)
+				return false;
+			
+			writeQueue.enqueue(new Runnable() {
+				
+				@Override
+				public void run() {
+					store.deleteConsumableRelations(id);
+					store.deleteConsumable(id);
+				}
+			});
+			
+			List<Person> formerSharers = changeListeners.isEmpty() ? null : consumable.getPersons();
+			int share = consumable.getPricePerPerson();
+			BitSet sharers = relations.sharersOf(consumable);
+			for (int p = sharers.nextSetBit(0); p >= 0; p = sharers.nextSetBit(p + 1)) {
+				relations.personAt(p).addToPersonalBill(-share);
 			}
+			publisher.sharersChanged(consumable);
+			int position = consumable.getPosition();
+			relations.remove(consumable);
+			if (transactionDepth > 0)
+				removedConsumables.add(consumable);
+			
+			totalBill -= consumable.getTotalPrice();
+			consumablesById.remove(id);
+			consumableNames.remove(consumable.getName(), consumable);
+			removeConsumableAt(position);
+			publish();
+			
+			for (OnTableChangedListener listener : changeListeners) {
+				listener.onConsumableRemoved(id, position, formerSharers);
+			}
+			return true;
+		} finally {
+			writeLock.unlock();
+		}
+	}
+	
+	/**
+	 * Removes the consumable at position without shifting the ones after it:
+	 * the last consumable takes its place.
+	 */
+	private void removeConsumableAt(int position) {
+		Consumable last = consumables.remove(consumables.size() - 1);
+		if (position < consumables.size()) {
+			consumables.set(position, last);
+			last.setPosition(position);
+			publisher.consumableChanged(last);
+		}
+	}
+	
+	/**
+	 * Finds consumables by the start of their name, ignoring case, without
+	 * looking at every consumable.
+	 * 
+	 * @return the matching consumables sorted by name, copied so that it
+	 *         stays valid when the table changes
+	 */
+	public List<Consumable> findConsumables(CharSequence prefix) {
+		readLock.lock();
+		try {
+			return new ArrayList<Consumable>(consumableNames.startingWith(prefix));
+		} finally {
+			readLock.unlock();
+		}
+	}
+	
+	/**
+	 * @return the consumable with id, or null if there is none
+	 */
+	public Consumable getConsumableById(int id) {
+		readLock.lock();
+		try {
+			return consumablesById.get(id);
+		} finally {
+			readLock.unlock();
 		}
-		return null;
 	}
 
-	public Consumable addConsumable(String name, int price, int quantity) throws Exception {
-		int id = (int) createConsumable(name, price, quantity);
-		
-		Consumable newConsumable = new Consumable(name, price, quantity, id);
-		
-		consumables.add(newConsumable);
-		
-		return newConsumable;
+	public void addConsumableToPerson(Consumable consumable, Person person){
+		writeLock.lock();
+		try {
+			if(isAttached(consumable) && isAttached(person) && assign(consumable, person)){
+				writeQueue.enqueueRelation(person, consumable, true);
+				publish();
+				
+				for (OnTableChangedListener listener : changeListeners) {
+					listener.onAssignmentChanged(person, consumable, true);
+				}
+			}
+		} finally {
+			writeLock.unlock();
+		}
+	}
+	
+	/**
+	 * @return false if person is null or no longer at the table. A person
+	 *         removed, maybe by another thread since the caller got it, keeps
+	 *         its object but loses its relation slot.
+	 */
+	private static boolean isAttached(Person person) {
+		return person != null && person.getSlot() >= 0;
 	}
 	
-	public boolean removeConsumable(int id){
-		Consumable consumable = getConsumableById(id);
-		if (consumable == null)
+	/**
+	 * @return false if consumable is null or no longer at the table
+	 */
+	private static boolean isAttached(Consumable consumable) {
+		return consumable != null && consumable.getSlot() >= 0;
+	}
+	
+	/**
+	 * Relates consumable and person in memory only, without touching the database.
+	 */
+	private void link(Consumable consumable, Person person) {
+		relations.assign(person, consumable);
+		publisher.personChanged(person);
+		publisher.consumableChanged(consumable);
+	}
+	
+	/**
+	 * Relates consumable and person in memory and updates the bills of
+	 * everyone sharing it.
+	 * 
+	 * @return false if they were already related
+	 */
+	private boolean assign(Consumable consumable, Person person) {
+		if (relations.isAssigned(person, consumable))
 			return false;
-		for (Person person : consumable.getPersons()) {
-			person.removeConsumable(consumable);
-		}
 		
-		mDb.delete(CONSUMES_TABLE, "consumable=?", new String[] {id+""});
-		deleteConsumable(id);
+		int oldShare = consumable.getPricePerPerson();
+		link(consumable, person);
+		person.addToPersonalBill(oldShare);
+		rebillSharers(consumable, oldShare);
+		return true;
+	}
+	
+	/**
+	 * Unrelates consumable and person in memory and updates the bills of
+	 * everyone who shared it.
+	 * 
+	 * @return false if they were not related
+	 */
+	private boolean unassign(Consumable consumable, Person person) {
+		if (!relations.isAssigned(person, consumable))
+			return false;
 		
-		return consumables.remove(consumable);
+		int oldShare = consumable.getPricePerPerson();
+		relations.unassign(person, consumable);
+		publisher.personChanged(person);
+		publisher.consumableChanged(consumable);
+		person.addToPersonalBill(-oldShare);
+		rebillSharers(consumable, oldShare);
+		return true;
 	}
 	
-	private Consumable getConsumableById(int id) {
-		for (Consumable consumable : consumables) {
-			if (consumable.getId() == id){
-				return consumable;
+	public void removeConsumableFromPerson(Consumable consumable, Person person) {
+		writeLock.lock();
+		try {
+			if (!isAttached(consumable) || !isAttached(person) || !unassign(consumable, person))
+				return;
+			
+			writeQueue.enqueueRelation(person, consumable, false);
+			publish();
+			
+			for (OnTableChangedListener listener : changeListeners) {
+				listener.onAssignmentChanged(person, consumable, false);
 			}
+		} finally {
+			writeLock.unlock();
 		}
-		return null;
 	}
 
-	public void addConsumableToPerson(Consumable consumable, Person person){
-		if(consumable != null && person != null){
-			consumable.addPerson(person);
-			person.addConsumable(consumable);
+	/**
+	 * Moves the bill of everyone sharing consumable from oldShare to its
+	 * current price per person, after a sharer was added or removed.
+	 */
+	private void rebillSharers(Consumable consumable, int oldShare) {
+		int delta = consumable.getPricePerPerson() - oldShare;
+		if (delta == 0)
+			return;
+		publisher.sharersChanged(consumable);
+		BitSet sharers = relations.sharersOf(consumable);
+		for (int p = sharers.nextSetBit(0); p >= 0; p = sharers.nextSetBit(p + 1)) {
+			relations.personAt(p).addToPersonalBill(delta);
+		}
+	}
+	
+	/**
+	 * Adds cents to the bill of everyone sharing consumable.
+	 */
+	private void billSharers(Consumable consumable, int cents) {
+		publisher.sharersChanged(consumable);
+		BitSet sharers = relations.sharersOf(consumable);
+		for (int p = sharers.nextSetBit(0); p >= 0; p = sharers.nextSetBit(p + 1)) {
+			relations.personAt(p).addToPersonalBill(cents);
+		}
+	}
+	
+	/**
+	 * Shares consumable with every person at the table. It is stored with a
+	 * single insert and reported to listeners as one change.
+	 */
+	public void addConsumableToEveryone(final Consumable consumable) {
+		writeLock.lock();
+		try {
+			if (!isAttached(consumable) || !shareWith(consumable, persons))
+				return;
 			
-			ContentValues values = new ContentValues();
-			values.put("person", person.getName());
-	    	values.put("consumable", consumable.getId());
-	    	
-	    	mDb.insert(CONSUMES_TABLE, null, values);
+			writeQueue.enqueue(new Runnable() {
+				
+				@Override
+				public void run() {
+					store.createConsumableRelations(consumable.getId());
+				}
+			});
+			notifyConsumableSharesChanged(consumable);
+		} finally {
+			writeLock.unlock();
 		}
 	}
 	
-	public void removeConsumableFromPerson(Consumable consumable, Person person) {
-		consumable.removePerson(person);
-		person.removeConsumable(consumable);
+	/**
+	 * Shares consumable with each of sharers, with a single insert and one
+	 * change reported to listeners.
+	 */
+	public void addConsumableToPersons(final Consumable consumable, Collection<Person> sharers) {
+		writeLock.lock();
+		try {
+			if (!isAttached(consumable))
+				return;
+			
+			final int[] added = new int[sharers.size()];
+			int count = 0;
+			for (Person person : sharers) {
+				if (isAttached(person) && !relations.isAssigned(person, consumable))
+					added[count++] = person.getId();
+			}
+			if (!shareWith(consumable, sharers))
+				return;
+			
+			final int addedCount = count;
+			writeQueue.enqueue(new Runnable() {
+				
+				@Override
+				public void run() {
+					store.createConsumableRelations(consumable.getId(), added, addedCount);
+				}
+			});
+			notifyConsumableSharesChanged(consumable);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+	
+	/**
+	 * Unshares consumable from each of sharers, with a single delete and one
+	 * change reported to listeners.
+	 */
+	public void removeConsumableFromPersons(final Consumable consumable, Collection<Person> sharers) {
+		writeLock.lock();
+		try {
+			if (!isAttached(consumable))
+				return;
+			
+			// Bill everyone for the new share once rather than once per
+			// person removed
+			final int[] removed = new int[sharers.size()];
+			int count = 0;
+			for (Person person : sharers) {
+				if (!isAttached(person) || !relations.isAssigned(person, consumable))
+					continue;
+				if (count == 0)
+					billSharers(consumable, -consumable.getPricePerPerson());
+				relations.unassign(person, consumable);
+				publisher.personChanged(person);
+				removed[count++] = person.getId();
+			}
+			if (count == 0)
+				return;
+			publisher.consumableChanged(consumable);
+			billSharers(consumable, consumable.getPricePerPerson());
+			
+			final int removedCount = count;
+			writeQueue.enqueue(new Runnable() {
+				
+				@Override
+				public void run() {
+					store.deleteConsumableRelations(consumable.getId(), removed, removedCount);
+				}
+			});
+			notifyConsumableSharesChanged(consumable);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+	
+	/**
+	 * Relates consumable to each of sharers in memory, billing everyone for
+	 * the new share once rather than once per person added.
+	 * 
+	 * @return false if all of them already shared it
+	 */
+	private boolean shareWith(Consumable consumable, Collection<Person> sharers) {
+		int oldShare = consumable.getPricePerPerson();
+		int oldCount = consumable.getNumberOfPersons();
+		billSharers(consumable, -oldShare);
+		for (Person person : sharers) {
+			if (isAttached(person))
+				link(consumable, person);
+		}
+		billSharers(consumable, consumable.getPricePerPerson());
+		return consumable.getNumberOfPersons() != oldCount;
+	}
+	
+	/**
+	 * Unshares consumable from everyone, with a single delete and one change
+	 * reported to listeners.
+	 */
+	public void removeConsumableFromEveryone(final Consumable consumable) {
+		writeLock.lock();
+		try {
+			if (!isAttached(consumable) || consumable.getNumberOfPersons() == 0)
+				return;
+			
+			billSharers(consumable, -consumable.getPricePerPerson());
+			relations.unassignAll(consumable);
+			publisher.consumableChanged(consumable);
+			
+			writeQueue.enqueue(new Runnable() {
+				
+				@Override
+				public void run() {
+					store.deleteConsumableRelations(consumable.getId());
+				}
+			});
+			notifyConsumableSharesChanged(consumable);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+	
+	/**
+	 * Makes person share every consumable at the table. It is stored with a
+	 * single insert and reported to listeners as one change.
+	 */
+	public void addEveryConsumableToPerson(final Person person) {
+		writeLock.lock();
+		try {
+			if (!isAttached(person))
+				return;
+			
+			boolean changed = false;
+			for (Consumable consumable : consumables) {
+				changed |= assign(consumable, person);
+			}
+			if (!changed)
+				return;
+			
+			writeQueue.enqueue(new Runnable() {
+				
+				@Override
+				public void run() {
+					store.createPersonRelations(person.getId());
+				}
+			});
+			notifyPersonConsumablesChanged(person);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+	
+	/**
+	 * Makes person share each of items, with a single insert and one change
+	 * reported to listeners.
+	 */
+	public void addConsumablesToPerson(Collection<Consumable> items, final Person person) {
+		writeLock.lock();
+		try {
+			if (!isAttached(person))
+				return;
+			
+			final int[] added = new int[items.size()];
+			int count = 0;
+			for (Consumable consumable : items) {
+				if (isAttached(consumable) && assign(consumable, person))
+					added[count++] = consumable.getId();
+			}
+			if (count == 0)
+				return;
+			
+			final int addedCount = count;
+			writeQueue.enqueue(new Runnable() {
+				
+				@Override
+				public void run() {
+					store.createPersonRelations(person.getId(), added, addedCount);
+				}
+			});
+			notifyPersonConsumablesChanged(person);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+	
+	/**
+	 * Unshares each of items from person, with a single delete and one
+	 * change reported to listeners.
+	 */
+	public void removeConsumablesFromPerson(Collection<Consumable> items, final Person person) {
+		writeLock.lock();
+		try {
+			if (!isAttached(person))
+				return;
+			
+			final int[] removed = new int[items.size()];
+			int count = 0;
+			for (Consumable consumable : items) {
+				if (isAttached(consumable) && unassign(consumable, person))
+					removed[count++] = consumable.getId();
+			}
+			if (count == 0)
+				return;
+			
+			final int removedCount = count;
+			writeQueue.enqueue(new Runnable() {
+				
+				@Override
+				public void run() {
+					store.deletePersonRelations(person.getId(), removed, removedCount);
+				}
+			});
+			notifyPersonConsumablesChanged(person);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+	
+	/**
+	 * Unshares every consumable person shares, with a single delete and one
+	 * change reported to listeners.
+	 */
+	public void removeEveryConsumableFromPerson(final Person person) {
+		writeLock.lock();
+		try {
+			if (!isAttached(person))
+				return;
+			
+			BitSet items = relations.itemsOf(person);
+			if (items.isEmpty())
+				return;
+			for (int c = items.nextSetBit(0); c >= 0; c = items.nextSetBit(c + 1)) {
+				unassign(relations.consumableAt(c), person);
+			}
+			
+			writeQueue.enqueue(new Runnable() {
+				
+				@Override
+				public void run() {
+					store.deletePersonRelations(person.getId());
+				}
+			});
+			notifyPersonConsumablesChanged(person);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+	
+	private void notifyConsumableSharesChanged(Consumable consumable) {
+		publish();
+		for (OnTableChangedListener listener : changeListeners) {
+			listener.onConsumableSharesChanged(consumable);
+		}
+	}
+	
+	private void notifyPersonConsumablesChanged(Person person) {
+		publish();
+		for (OnTableChangedListener listener : changeListeners) {
+			listener.onPersonConsumablesChanged(person);
+		}
+	}
+	
+	/**
+	 * Runs the add/remove/assign calls made by work as one unit: their
+	 * writes are committed in a single store transaction, and if work throws,
+	 * the table is put back as it was before the call and none of them is
+	 * written. Calls may be nested; only the outermost one commits or rolls
+	 * back, so a failure the outer work catches is kept.
+	 * 
+	 * The in-memory model is still updated as each call is made, and
+	 * listeners told right away; after a rollback they get
+	 * onTableRolledBack(). Rolling back rebuilds the table, reusing the
+	 * Person and Consumable objects it had.
+	 * 
+	 * Since every write reuses a compiled statement, this is also the way to
+	 * bulk insert: adding a thousand consumables inside one call compiles the
+	 * insert once and syncs the disk once.
+	 * 
+	 * The snapshot returned by getSnapshot() is published once, when the
+	 * outermost call returns, so other threads never see part of work. The
+	 * write lock is held throughout, so changes and reads made by other
+	 * threads wait for work to finish.
+	 * 
+	 * @param work the sequence of mutations to group
+	 */
+	public void runInTransaction(Runnable work) {
+		writeLock.lock();
+		try {
+			if (transactionDepth++ == 0) {
+				transactionStart = snapshot;
+				removedPersons = new ArrayList<Person>();
+				removedConsumables = new ArrayList<Consumable>();
+			}
+			writeQueue.beginBatch();
+			boolean done = false;
+			try {
+				work.run();
+				done = true;
+			} finally {
+				if (--transactionDepth == 0) {
+					if (!done)
+						rollback();
+					transactionStart = null;
+					removedPersons = null;
+					removedConsumables = null;
+				}
+				writeQueue.endBatch(done);
+				publish();
+			}
+		} finally {
+			writeLock.unlock();
+		}
+	}
+	
+	/**
+	 * Puts the table back as transactionStart has it, reusing the objects
+	 * at the table or removed since, so that those callers hold stay valid.
+	 */
+	private void rollback() {
+		Map<Integer, Person> knownPersons = new HashMap<Integer, Person>(personsById);
+		for (Person person : removedPersons) {
+			knownPersons.put(person.getId(), person);
+		}
+		Map<Integer, Consumable> knownConsumables = new HashMap<Integer, Consumable>(consumablesById);
+		for (Consumable consumable : removedConsumables) {
+			knownConsumables.put(consumable.getId(), consumable);
+		}
+		
+		relations.clear();
+		personNames.clear();
+		consumableNames.clear();
+		// Refilled in place, as the views may hold on to the lists
+		persons.clear();
+		for (PersonState state : transactionStart.getPersons()) {
+			Person person = knownPersons.get(state.getId());
+			person.setName(state.getName());
+			persons.add(person);
+		}
+		consumables.clear();
+		for (ConsumableState state : transactionStart.getConsumables()) {
+			consumables.add(knownConsumables.get(state.getId()));
+		}
+		buildIndexes();
+		
+		for (PersonState state : transactionStart.getPersons()) {
+			Person person = personsById.get(state.getId());
+			for (int i = 0; i < state.getNumberOfConsumables(); i++) {
+				link(consumablesById.get(state.getConsumableId(i)), person);
+			}
+		}
+		computeTotals();
+		tip = transactionStart.getTip();
+		publisher.everythingChanged();
 		
-		mDb.delete(CONSUMES_TABLE, "person=? AND consumable=?", new String[] {person.getName(), consumable.getId()+""});
+		for (OnTableChangedListener listener : changeListeners) {
+			listener.onTableRolledBack();
+		}
 	}
-
+	
+	/**
+	 * Blocks until every queued write has reached the database. Call it
+	 * whenever the process may go away, e.g. from onPause.
+	 */
+	public void flush() {
+		writeQueue.flush();
+	}
+	
+	/**
+	 * Writes everything queued and stops the background writer, for a table
+	 * that will not be used again, such as one loaded by a benchmark. The
+	 * shared instance lives as long as the process and is never closed.
+	 */
+	public void close() {
+		writeQueue.close();
+	}
+	
 	public int getNumberOfConsumables () {
-		return consumables.size();
+		readLock.lock();
+		try {
+			return consumables.size();
+		} finally {
+			readLock.unlock();
+		}
 	}
 	
 	public Consumable getConsumable (int position) {
-		return consumables.get(position);
+		readLock.lock();
+		try {
+			return consumables.get(position);
+		} finally {
+			readLock.unlock();
+		}
 	}
 	
+	/**
+	 * @return the live list of persons, only for the thread changing the
+	 *         table; other threads should read getSnapshot()
+	 */
 	public List<Person> getPersons() {
 		return persons;
 	}
 
+	/**
+	 * @return the live list of consumables, only for the thread changing
+	 *         the table; other threads should read getSnapshot()
+	 */
 	public List<Consumable> getConsumables() {
 		return consumables;
 	}
 
 	public Person getPerson (int position) {
-		return persons.get(position);
+		readLock.lock();
+		try {
+			return persons.get(position);
+		} finally {
+			readLock.unlock();
+		}
 	}
 
 	public int getNumberOfPersons() {
-		return persons.size();
+		readLock.lock();
+		try {
+			return persons.size();
+		} finally {
+			readLock.unlock();
+		}
 	}
     
-    //BD Methods	
-    public long createPerson(String name)
-    {
-    	ContentValues values = new ContentValues();
-    	values.put("name", name);
-    
-    	return mDb.insert(PERSON_TABLE, null, values);
-    }
-    
-    public List<Person> fetchPersons()
-    {
-    	List<Person> persons = new ArrayList<Person>();
-    	
-    	//Cursor c = mDb.query("Person", new String [] {"name"}, "name=?",
-    	//		new String[] {name}, null, null, null);
-    	Cursor c = mDb.query(PERSON_TABLE, new String [] {"name"}, 
-    			null, null, null, null, null);
-
-    	c.moveToFirst();
-    	int size = c.getCount(); 
-    	for(int i = 0; i < size; i++, c.moveToNext()){
-    		String fetchedName = c.getString(c.getColumnIndex("name"));
-    		persons.add(new Person(fetchedName));
-    	}
-    	
-    	return persons;
-    }
-    
-    public void deletePerson(String name){
-    	mDb.delete(PERSON_TABLE, "name=?", new String[] {name});
-    }
-    
-    public long createConsumable(String name, Integer price, Integer quantity) throws Exception {
-    	ContentValues values = new ContentValues();
-    	values.put("name", name);
-    	values.put("price", price);
-    	values.put("quantity", quantity);
-    	
-    	long id = mDb.insert(CONSUMABLE_TABLE, null, values);
-    	
-    	if(id == -1)
-    		throw new Exception("Não foi possível inserir consumable");
-    	
-    	return id;
-    }
-        
-    public void deleteConsumable(Integer id) {
-    	mDb.delete(CONSUMABLE_TABLE, "id=?", new String[] {id.toString()});
-    }
-    
-    public List<Consumable> fetchConsumables(){
-    	List <Consumable> consumables = new ArrayList<Consumable>();
-    	
-    	Cursor c = mDb.query(CONSUMABLE_TABLE, new String[] {"id", "name", "price", "quantity"}, 
-    			null, null, null, null, null);
-    	c.moveToFirst();
-    	int size = c.getCount();
-    	for (int i = 0; i < size; i++, c.moveToNext()){
-    		int id, price, quantity;
-    		String name;
-    		id = c.getInt(c.getColumnIndex("id"));
-    		name = c.getString(c.getColumnIndex("name"));
-    		price = c.getInt(c.getColumnIndex("price"));
-    		quantity = c.getInt(c.getColumnIndex("quantity"));
-
-    		consumables.add(new Consumable(name, price, quantity, id));
-    	}
-    	
-    	return consumables;
-    }
-
+    /**
+     * Loads the stored relations in a single pass, resolving both ends through
+     * the indexes and linking them in memory. Relations pointing to a missing
+     * person or consumable are skipped, and nothing is written back.
+     */
     private void fetchRelations() {
-    	
-    	Cursor c = mDb.query(CONSUMES_TABLE, new String [] {"person", "consumable"}, 
-    			null, null, null, null, null);
+    	store.fetchRelations(new TableStore.RelationHandler() {
+			
+			@Override
+			public void onRelation(int person, int consumable) {
+	    		Person relPerson = getPersonById(person);
+	    		Consumable relConsumable = getConsumableById(consumable);
 
-    	c.moveToFirst();
-    	int size = c.getCount(); 
-    	for(int i = 0; i < size; i++, c.moveToNext()){
-    		Person relPerson = null;
-    		Consumable relConsumable = null;
-    		
-    		String fetchedPerson = c.getString(c.getColumnIndex("person"));
-    		int fetchedConsumable = c.getInt(c.getColumnIndex("consumable"));
-    		
-    		for (Person person : persons) {
-				if(person.getName().equals(fetchedPerson)){
-					relPerson = person;
-					break;
-				}
+	    		if(relPerson != null && relConsumable != null){
+	    			link(relConsumable, relPerson);
+	    		}
 			}
-    		for (Consumable consumable : consumables) {
-				if(consumable.getId() == fetchedConsumable){
-					relConsumable = consumable;
-					break;
-				}
-			}
-
-    		addConsumableToPerson(relConsumable, relPerson);
-    	}
-    	
+		});
 	}
 
 	public void clear() {
-		persons.clear();
-		consumables.clear();
-		mDb.delete(CONSUMES_TABLE, null, null);
-		mDb.delete(PERSON_TABLE, null, null);
-		mDb.delete(CONSUMABLE_TABLE, null, null);
+		writeLock.lock();
+		try {
+			writeQueue.enqueue(new Runnable() {
+				
+				@Override
+				public void run() {
+					store.clear();
+				}
+			});
+			if (transactionDepth > 0) {
+				removedPersons.addAll(persons);
+				removedConsumables.addAll(consumables);
+			}
+			persons.clear();
+			consumables.clear();
+			personsByName.clear();
+			personsById.clear();
+			consumablesById.clear();
+			personNames.clear();
+			consumableNames.clear();
+			relations.clear();
+			totalBill = 0;
+			publisher.everythingChanged();
+			publish();
+			
+			for (OnTableChangedListener listener : changeListeners) {
+				listener.onTableCleared();
+			}
+		} finally {
+			writeLock.unlock();
+		}
 	}
 	
 	public int getTip() {
-		return tip;
+		readLock.lock();
+		try {
+			return tip;
+		} finally {
+			readLock.unlock();
+		}
 	}
 
 	public void setTip(int tip) {
-		this.tip = tip;
+		writeLock.lock();
+		try {
+			if (this.tip == tip)
+				return;
+			this.tip = tip;
+			publish();
+			
+			for (OnTableChangedListener listener : changeListeners) {
+				listener.onTipChanged(tip);
+			}
+		} finally {
+			writeLock.unlock();
+		}
 	}
 
 	public int getPersonalBill(Person person) {
-		return (person.getPersonalBill()*(100+tip))/100;
+		readLock.lock();
+		try {
+			return (person.getPersonalBill()*(100+tip))/100;
+		} finally {
+			readLock.unlock();
+		}
+	}
+	
+	/**
+	 * Computes everyone's bill from scratch in a single pass, split across
+	 * threads for large tables. Meant for settling up big tables at once
+	 * rather than asking getPersonalBill(Person) person by person.
+	 * 
+	 * @return every person's bill, tip included
+	 */
+	public Bills computeAllBills() {
+		readLock.lock();
+		try {
+			int[] shares = new BillCalculator(relations).sumShares();
+			return new Bills(relations.personsBySlot(), shares, tip);
+		} finally {
+			readLock.unlock();
+		}
+	}
+	
+	/**
+	 * Splits the table exactly: shares add up to the price of everything
+	 * consumed and tips to the table's tip, with no cent lost or added by
+	 * rounding. What nobody shares, and its part of the tip, is set apart.
+	 * 
+	 * @return every person's exact share, tip and bill
+	 */
+	public Settlement settle() {
+		readLock.lock();
+		try {
+			return Settlement.compute(relations, tip);
+		} finally {
+			readLock.unlock();
+		}
 	}
 
 }
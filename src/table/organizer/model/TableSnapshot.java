@@ -0,0 +1,204 @@
+package table.organizer.model;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The table as it was after one committed change, which never changes
+ * afterwards. TableManager publishes a new one after every change, sharing
+ * the entries and list nodes that did not change with the one before, so
+ * any thread can read a consistent table without locking while the main
+ * thread goes on changing it.
+ *
+ * Persons and consumables are copied into PersonState and ConsumableState
+ * values; relations are kept as the ids on the other side.
+ */
+public final class TableSnapshot {
+	static final TableSnapshot EMPTY = new TableSnapshot(0, SharedList.<PersonState> empty(),
+			SharedList.<ConsumableState> empty(), TableManager.DEFAULT_TIP, 0);
+
+	private final long version;
+	private final SharedList<PersonState> persons;
+	private final SharedList<ConsumableState> consumables;
+	private final int tip;
+	private final int totalBill;
+
+	TableSnapshot(long version, SharedList<PersonState> persons,
+			SharedList<ConsumableState> consumables, int tip, int totalBill) {
+		this.version = version;
+		this.persons = persons;
+		this.consumables = consumables;
+		this.tip = tip;
+		this.totalBill = totalBill;
+	}
+
+	/**
+	 * @return a number that grows with every snapshot published
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return the persons in table order, as a read-only list
+	 */
+	public List<PersonState> getPersons() {
+		return persons;
+	}
+
+	/**
+	 * @return the consumables in table order, as a read-only list
+	 */
+	public List<ConsumableState> getConsumables() {
+		return consumables;
+	}
+
+	public int getTip() {
+		return tip;
+	}
+
+	/**
+	 * @return total bill price in cents
+	 */
+	public int getTotalBill() {
+		return totalBill;
+	}
+
+	public int getTotalBillWithTip() {
+		return (totalBill * (100 + tip)) / 100;
+	}
+
+	public int getPersonalBill(PersonState person) {
+		return (person.getPersonalBill() * (100 + tip)) / 100;
+	}
+
+	SharedList<PersonState> personStates() {
+		return persons;
+	}
+
+	SharedList<ConsumableState> consumableStates() {
+		return consumables;
+	}
+
+	/**
+	 * A person as it was when the snapshot was taken.
+	 */
+	public static final class PersonState {
+		private final int id;
+		private final String name;
+		private final int personalBill;
+		private final int[] consumableIds; // sorted, never modified
+		final int relationsVersion;
+
+		PersonState(int id, String name, int personalBill, int[] consumableIds, int relationsVersion) {
+			this.id = id;
+			this.name = name;
+			this.personalBill = personalBill;
+			this.consumableIds = consumableIds;
+			this.relationsVersion = relationsVersion;
+		}
+
+		public int getId() {
+			return id;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return personal bill to be paid in cents, without the tip
+		 */
+		public int getPersonalBill() {
+			return personalBill;
+		}
+
+		public int getNumberOfConsumables() {
+			return consumableIds.length;
+		}
+
+		/**
+		 * @return the id of one of the consumables shared, in increasing id
+		 *         order for index from 0 to getNumberOfConsumables() - 1
+		 */
+		public int getConsumableId(int index) {
+			return consumableIds[index];
+		}
+
+		public boolean isConsuming(int consumableId) {
+			return Arrays.binarySearch(consumableIds, consumableId) >= 0;
+		}
+
+		int[] consumableIds() {
+			return consumableIds;
+		}
+	}
+
+	/**
+	 * A consumable as it was when the snapshot was taken.
+	 */
+	public static final class ConsumableState {
+		private final int id;
+		private final String name;
+		private final int price;
+		private final int quantity;
+		private final int pricePerPerson;
+		private final int[] personIds; // sorted, never modified
+		final int relationsVersion;
+
+		ConsumableState(int id, String name, int price, int quantity, int pricePerPerson,
+				int[] personIds, int relationsVersion) {
+			this.id = id;
+			this.name = name;
+			this.price = price;
+			this.quantity = quantity;
+			this.pricePerPerson = pricePerPerson;
+			this.personIds = personIds;
+			this.relationsVersion = relationsVersion;
+		}
+
+		public int getId() {
+			return id;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public int getPrice() {
+			return price;
+		}
+
+		public int getQuantity() {
+			return quantity;
+		}
+
+		public int getTotalPrice() {
+			return price * quantity;
+		}
+
+		public int getPricePerPerson() {
+			return pricePerPerson;
+		}
+
+		public int getNumberOfPersons() {
+			return personIds.length;
+		}
+
+		/**
+		 * @return the id of one of the sharers, in increasing id order for
+		 *         index from 0 to getNumberOfPersons() - 1
+		 */
+		public int getPersonId(int index) {
+			return personIds[index];
+		}
+
+		public boolean isConsumedBy(int personId) {
+			return Arrays.binarySearch(personIds, personId) >= 0;
+		}
+
+		int[] personIds() {
+			return personIds;
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package table.organizer.model;
+
+import java.util.List;
+
+/**
+ * Persistent storage behind a TableManager. TableManager reads the whole
+ * table once through the fetch methods and from then on only writes,
+ * always from a single writer thread.
+ */
+public interface TableStore {
+
+	public interface RelationHandler {
+		void onRelation(int person, int consumable);
+	}
+
+	List<Person> fetchPersons();
+
+	List<Consumable> fetchConsumables();
+
+	/**
+	 * Reports every stored person/consumable pair to handler, in one pass.
+	 */
+	void fetchRelations(RelationHandler handler);
+
+	void createPerson(int id, String name);
+
+	void updatePersonName(int id, String name);
+
+	void deletePerson(int id);
+
+	void createConsumable(int id, String name, int price, int quantity);
+
+	void deleteConsumable(int id);
+
+	void createRelation(int person, int consumable);
+
+	void deleteRelation(int person, int consumable);
+
+	/**
+	 * Relates person to every stored consumable, in a single statement.
+	 */
+	void createPersonRelations(int person);
+
+	/**
+	 * Relates consumable to every stored person, in a single statement.
+	 */
+	void createConsumableRelations(int consumable);
+
+	void deletePersonRelations(int person);
+
+	void deleteConsumableRelations(int consumable);
+
+	/**
+	 * Relates person to each of the first count stored consumables in
+	 * consumables, in as few statements as the store allows.
+	 */
+	void createPersonRelations(int person, int[] consumables, int count);
+
+	/**
+	 * Relates consumable to each of the first count stored persons in
+	 * persons, in as few statements as the store allows.
+	 */
+	void createConsumableRelations(int consumable, int[] persons, int count);
+
+	void deletePersonRelations(int person, int[] consumables, int count);
+
+	void deleteConsumableRelations(int consumable, int[] persons, int count);
+
+	void clear();
+
+	/**
+	 * Runs work so that either all of its writes are stored or none are.
+	 */
+	void runInTransaction(Runnable work);
+}
@@ -0,0 +1,247 @@
+package table.organizer.model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import table.organizer.model.TableManager.OnWriteFailedListener;
+import android.util.Log;
+
+/**
+ * Persists the model on a single background writer. Callers update the
+ * in-memory objects first and then enqueue the matching database operation
+ * here; the writer drains everything queued so far inside one transaction.
+ *
+ * Relation toggles are coalesced: assigning and then unassigning the same
+ * pair before the writer gets to it cancels both. Any other operation acts
+ * as a barrier, so nothing is ever reordered across it.
+ *
+ * If that transaction fails, each operation is written again in its own
+ * transaction, so that one bad write does not take unrelated ones with it;
+ * a batch counts as one operation there, since it must commit as a unit.
+ * Those that still fail are reported to the OnWriteFailedListeners.
+ */
+class WriteBehindQueue {
+	private final TableStore store;
+	private final ExecutorService writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "TableWriter");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	private final Object lock = new Object();
+	private final List<OnWriteFailedListener> failureListeners = new CopyOnWriteArrayList<OnWriteFailedListener>();
+
+	private List<Runnable> pending = new ArrayList<Runnable>();
+	private Map<Long, RelationOp> pendingRelations = new HashMap<Long, RelationOp>();
+	private boolean drainScheduled;
+
+	private int batchDepth;
+	private List<Runnable> batch;
+	private Map<Long, RelationOp> batchRelations;
+
+	private final Runnable drain = new Runnable() {
+
+		@Override
+		public void run() {
+			drain();
+		}
+	};
+
+	WriteBehindQueue(TableStore store) {
+		this.store = store;
+	}
+
+	void addOnWriteFailedListener(OnWriteFailedListener listener) {
+		failureListeners.add(listener);
+	}
+
+	void removeOnWriteFailedListener(OnWriteFailedListener listener) {
+		failureListeners.remove(listener);
+	}
+
+	/**
+	 * Queues a write that must run in order with everything around it.
+	 */
+	void enqueue(Runnable op) {
+		synchronized (lock) {
+			if (batchDepth > 0) {
+				batch.add(op);
+				batchRelations.clear();
+			} else {
+				pending.add(op);
+				pendingRelations.clear();
+				scheduleDrain();
+			}
+		}
+	}
+
+	/**
+	 * Queues the insert (assigned) or delete of a single Consumes row,
+	 * cancelling a still pending opposite toggle of the same pair.
+	 */
+	void enqueueRelation(Person person, Consumable consumable, boolean assigned) {
+		Long key = ((long) person.getId() << 32) | consumable.getId();
+
+		synchronized (lock) {
+			List<Runnable> ops = (batchDepth > 0) ? batch : pending;
+			Map<Long, RelationOp> index = (batchDepth > 0) ? batchRelations : pendingRelations;
+
+			RelationOp previous = index.get(key);
+			if (previous != null) {
+				if (previous.assigned != assigned) {
+					previous.cancelled = true;
+					index.remove(key);
+				}
+				return;
+			}
+
+			RelationOp op = new RelationOp(person.getId(), consumable.getId(), assigned);
+			ops.add(op);
+			index.put(key, op);
+			if (batchDepth == 0)
+				scheduleDrain();
+		}
+	}
+
+	/**
+	 * Starts collecting operations that must be committed together. Batches
+	 * may be nested; only the outermost one is handed to the writer.
+	 */
+	void beginBatch() {
+		synchronized (lock) {
+			if (batchDepth++ == 0) {
+				batch = new ArrayList<Runnable>();
+				batchRelations = new HashMap<Long, RelationOp>();
+			}
+		}
+	}
+
+	/**
+	 * Ends the current batch. When the outermost batch ends its operations
+	 * are queued as a unit if commit is set, and dropped otherwise.
+	 */
+	void endBatch(boolean commit) {
+		synchronized (lock) {
+			if (--batchDepth > 0)
+				return;
+
+			final List<Runnable> ops = batch;
+			batch = null;
+			batchRelations = null;
+
+			if (commit && !ops.isEmpty()) {
+				pending.add(new Runnable() {
+
+					@Override
+					public void run() {
+						for (Runnable op : ops) {
+							op.run();
+						}
+					}
+				});
+				pendingRelations.clear();
+				scheduleDrain();
+			}
+		}
+	}
+
+	/**
+	 * Blocks until everything queued so far has been written.
+	 */
+	void flush() {
+		Future<?> done = writer.submit(drain);
+		try {
+			done.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			Log.e("DB", "Falha ao gravar alterações", e.getCause());
+		}
+	}
+
+	/**
+	 * Writes everything queued so far and stops the writer thread. Nothing
+	 * may be queued afterwards.
+	 */
+	void close() {
+		flush();
+		writer.shutdown();
+	}
+
+	private void scheduleDrain() {
+		if (!drainScheduled) {
+			drainScheduled = true;
+			writer.execute(drain);
+		}
+	}
+
+	private void drain() {
+		final List<Runnable> ops;
+		synchronized (lock) {
+			drainScheduled = false;
+			if (pending.isEmpty())
+				return;
+			ops = pending;
+			pending = new ArrayList<Runnable>();
+			pendingRelations.clear();
+		}
+
+		try {
+			store.runInTransaction(new Runnable() {
+
+				@Override
+				public void run() {
+					for (Runnable op : ops) {
+						op.run();
+					}
+				}
+			});
+		} catch (RuntimeException e) {
+			Log.w("DB", "Falha ao gravar alterações, gravando uma a uma", e);
+			for (Runnable op : ops) {
+				try {
+					store.runInTransaction(op);
+				} catch (RuntimeException failure) {
+					Log.e("DB", "Falha ao gravar alteração", failure);
+					for (OnWriteFailedListener listener : failureListeners) {
+						listener.onWriteFailed(failure);
+					}
+				}
+			}
+		}
+	}
+
+	private class RelationOp implements Runnable {
+		private final int person;
+		private final int consumable;
+		private final boolean assigned;
+		private boolean cancelled;
+
+		RelationOp(int person, int consumable, boolean assigned) {
+			this.person = person;
+			this.consumable = consumable;
+			this.assigned = assigned;
+		}
+
+		@Override
+		public void run() {
+			if (cancelled)
+				return;
+			if (assigned)
+				store.createRelation(person, consumable);
+			else
+				store.deleteRelation(person, consumable);
+		}
+	}
+}